@@ -0,0 +1,972 @@
+import java.awt.Color;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmarks for the search and its data structures, run from the command line
+ * 
+ * Usage: java Benchmark ttd [depth] [threads] - time-to-depth of the parallel searches against the
+ * single-threaded negamax
+ *        java Benchmark ttstress [threads] [seconds] - stress test of the shared transposition table
+ *        java Benchmark codec [positions] - round trip and speed of PositionCodec against the old
+ * base-90 string encoding
+ *        java Benchmark eval [positions] - scores and speed of the packed material/position evaluation
+ * against the old separate midgame/endgame passes, and the lazy evaluation margin
+ *        java Benchmark king [positions] - time and allocation per call of the king safety evaluation
+ *        java Benchmark see [positions] - results and speed of the bitboard static exchange evaluation
+ * against the old one that played the exchange out on the board
+ *        java Benchmark nnue [positions] [weights file] - checks the network's incremental accumulators and
+ * compares its evaluations per second with the hand-written evaluation (a random network if no file)
+ */
+public class Benchmark
+{
+	//Test positions (FEN), from the opening to the endgame
+	private static final String[] POSITIONS = {
+			"rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+			"r1bqkb1r/pppp1ppp/2n2n2/4p3/2B1P3/5N2/PPPP1PPP/RNBQK2R w KQkq - 4 4",
+			"r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+			"r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10",
+			"8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+	};
+	
+	/**
+	 * Sets up a board from a FEN position
+	 */
+	private static Board setupPosition(String fen)
+	{
+		Board board = new Board();
+		Game.setupBoard(board, fen);
+		return board;
+	}
+	
+	/**
+	 * Searches a position to a fixed depth with an empty state table and empty evaluation caches
+	 * 
+	 * @param fen The position
+	 * @param depth The depth to search
+	 * @param threads The number of search threads
+	 * @param ybwc True for Young Brothers Wait, false for Lazy SMP (ignored on one thread)
+	 * @return {time in ms, nodes, best packed move}
+	 */
+	private static long[] timeToDepth(String fen, int depth, int threads, boolean ybwc) throws IOException
+	{
+		Board board = setupPosition(fen);
+		SmartPlayerNegamax player = new SmartPlayerNegamax(board, "Benchmark", board.getSideToMove(), depth, false, 0, threads);
+		player.setYoungBrothersWait(ybwc);
+		Compression.clearTable();
+		Evaluation.clearCaches();
+		
+		long timeStart = System.nanoTime();
+		int bestMove = player.searchToDepth(depth);
+		long elapsed = (System.nanoTime() - timeStart) / 1000000;
+		return new long[] { elapsed, player.getSearchedNodes(), bestMove };
+	}
+	
+	/**
+	 * Compares the time-to-depth of the single-threaded search, Young Brothers Wait and Lazy SMP
+	 * on every test position
+	 * 
+	 * @param depth The depth to search
+	 * @param threads The number of threads for the parallel searches
+	 */
+	public static void timeToDepth(int depth, int threads) throws IOException
+	{
+		DecimalFormat df = new DecimalFormat("###,###,###,###");
+		DecimalFormat sf = new DecimalFormat("##0.00");
+		String[] names = { "Single", "YBWC", "Lazy SMP" };
+		long[] totalTime = new long[names.length];
+		
+		System.out.println("----- Time To Depth (depth " + depth + ", " + threads + " threads, "
+				+ Runtime.getRuntime().availableProcessors() + " cores available) -----");
+		
+		//Warm up the JIT so the first position isn't penalized
+		timeToDepth(POSITIONS[0], Math.max(1, depth - 2), 1, false);
+		
+		for (int p=0;p<POSITIONS.length;p++)
+		{
+			long[][] results = {
+					timeToDepth(POSITIONS[p], depth, 1, false),
+					timeToDepth(POSITIONS[p], depth, threads, true),
+					timeToDepth(POSITIONS[p], depth, threads, false),
+			};
+			System.out.println("Position " + (p+1) + ": " + POSITIONS[p]);
+			for (int i=0;i<names.length;i++)
+			{
+				totalTime[i] += results[i][0];
+				System.out.println("  " + names[i]
+						+ " | Time: " + results[i][0] + "ms"
+						+ " | Nodes: " + df.format(results[i][1])
+						+ " | Speedup: " + sf.format(results[0][0] / (double) Math.max(1, results[i][0])) + "x"
+						+ " | Best: " + (results[i][2] == PackedMove.NONE ? "-" : PackedMove.toStandardNotation((int) results[i][2])));
+			}
+		}
+		System.out.println("Total:");
+		for (int i=0;i<names.length;i++)
+		{
+			System.out.println("  " + names[i]
+					+ " | Time: " + totalTime[i] + "ms"
+					+ " | Speedup: " + sf.format(totalTime[0] / (double) Math.max(1, totalTime[i])) + "x");
+		}
+	}
+	
+	/**
+	 * Returns the key of a state number in the stress test (spread over the whole table)
+	 */
+	private static long stressKey(int n)
+	{
+		long z = (n + 1) * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+	
+	//The entry fields stored for a key in the stress test, so any probe result can be checked
+	private static int stressNodeType(long key) { return 1 + (int) Long.remainderUnsigned(key, 3); }
+	private static int stressDepth(long key) { return (int) (key >>> 8) & 63; }
+	private static int stressScore(long key) { return (int) Long.remainderUnsigned(key >>> 16, 20000) - 10000; }
+	private static int stressMove(long key) { return (int) (key >>> 40) & 0xFFFFF; }
+	
+	/**
+	 * Hammers one small transposition table from many threads at once, every thread storing and
+	 * probing the same states, and checks that every entry returned is the one stored for its key
+	 * 
+	 * @param threads The number of threads
+	 * @param seconds How long to run
+	 * @return True if no corrupted entry was returned
+	 */
+	public static boolean transpositionStress(int threads, int seconds) throws InterruptedException
+	{
+		DecimalFormat df = new DecimalFormat("###,###,###,###");
+		TranspositionTable table = new TranspositionTable(1); //Small, so threads keep colliding in the same buckets
+		int keySpace = table.capacity() * 4;
+		long deadline = System.nanoTime() + seconds * 1000000000L;
+		long[] operations = new long[threads];
+		long[] hits = new long[threads];
+		long[] corrupted = new long[threads];
+		
+		Thread[] workers = new Thread[threads];
+		for (int t=0;t<threads;t++)
+		{
+			int id = t;
+			workers[t] = new Thread(() -> {
+				java.util.Random rng = new java.util.Random(id);
+				while (System.nanoTime() < deadline)
+				{
+					for (int i=0;i<4096;i++)
+					{
+						long key = stressKey(rng.nextInt(keySpace));
+						if (rng.nextBoolean())
+						{
+							table.store(key, stressNodeType(key), stressDepth(key), stressScore(key), stressMove(key));
+						}
+						else
+						{
+							long entry = table.probe(key);
+							if (entry != TranspositionTable.MISS)
+							{
+								hits[id]++;
+								if (TranspositionTable.nodeType(entry) != stressNodeType(key)
+										|| TranspositionTable.depth(entry) != stressDepth(key)
+										|| TranspositionTable.score(entry) != stressScore(key)
+										|| TranspositionTable.move(entry) != stressMove(key))
+								{
+									corrupted[id]++;
+								}
+							}
+						}
+					}
+					operations[id] += 4096;
+				}
+			});
+			workers[t].start();
+		}
+		for (Thread worker : workers)
+		{
+			worker.join();
+		}
+		
+		long totalOperations = 0, totalHits = 0, totalCorrupted = 0;
+		for (int t=0;t<threads;t++)
+		{
+			totalOperations += operations[t];
+			totalHits += hits[t];
+			totalCorrupted += corrupted[t];
+		}
+		System.out.println("----- Transposition Table Stress (" + threads + " threads, " + seconds + "s) -----");
+		System.out.println("TABLE ENTRIES: " + df.format(table.capacity()) + " | STATES: " + df.format(keySpace));
+		System.out.println("OPERATIONS: " + df.format(totalOperations) + " | OPERATIONS/SECOND: " + df.format(totalOperations / seconds));
+		System.out.println("PROBE HITS: " + df.format(totalHits) + " | CORRUPTED ENTRIES: " + df.format(totalCorrupted));
+		System.out.println(totalCorrupted == 0 ? "PASSED" : "FAILED");
+		return totalCorrupted == 0;
+	}
+	
+	/**
+	 * Encodes a base 10 number, represented as a String, to a base 90 number
+	 * @param number The base 10 number
+	 * @return The base 90 number
+	 */
+	private static String encodeToBase90(BigInteger number) {
+		String DIGITS = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz!@#$%^&*()[];',./{}|:<>?_+`~";
+		BigInteger BASE = BigInteger.valueOf(90);
+	    if (number.compareTo(BigInteger.ZERO) == -1) { // number < 0
+	      throw new IllegalArgumentException("number must not be negative");
+	    }
+	    StringBuilder result = new StringBuilder();
+	    while (number.compareTo(BigInteger.ZERO) == 1) { // number > 0
+	      BigInteger[] divmod = number.divideAndRemainder(BASE);
+	      number = divmod[0];
+	      int digit = divmod[1].intValue();
+	      result.insert(0, DIGITS.charAt(digit));
+	    }
+	    return (result.length() == 0) ? DIGITS.substring(0, 1) : result.toString();
+	}
+	/**
+	 * Compresses the current board state into a base90 number stored in a String (the state encoding
+	 * used before PositionCodec, kept to compare against)
+	 * 
+	 * @param board The current board
+	 * @param color The color to play
+	 * @return The compressed string
+	 */
+	private static String legacyCompressState(Board board, int color)
+	{
+		// 1 - Pawn, 2 - Knight, 3 - Bishop, 4 - Rook, 5 - Queen, 6 - King
+		String[][] enumTable = {
+				{"1","2","3","4","5","6"},
+				{"7","8","9","A","B","C"}
+		};
+		String ret = "";
+		// 0 - Empty
+		
+		// Shift 0 for white, Shift 6 for black
+		for (int i = 0; i < board.getNumRows(); i++)
+		{
+			for (int j = 0; j < board.getNumCols(); j++)
+			{
+				Piece p = board.get(new Location(i, j));
+				String pieceEnum = "0";
+				if (p == null) {
+					pieceEnum = "0";
+				}
+				else {
+					int colorEnum = p.getColor().equals(Color.WHITE) ? 0 : 1;
+					pieceEnum = enumTable[colorEnum][p.getEnum()-1];
+				}
+				
+				ret += pieceEnum;
+			}
+		}
+		
+		//Always compress with white near-side
+		if (Game.NEAR_COLOR.equals(Color.BLACK)) {
+			String retRev = "";
+			for (int i=ret.length()-1;i>=0;i--) {
+				retRev += ret.substring(i,i+1);
+			}
+			ret = retRev;
+		}
+		
+		/**
+		 * Add tag for castling rights
+		 * 0 = none, 1 = short, 2 = long, 3 = both
+		 */
+		ret = (board.getCastlingRights(color == 1 ? Color.WHITE : Color.BLACK)) + ret;
+		
+		/*
+		 * Add tag for color to play
+		 * 1 = White, 2 = Black
+		 */
+		ret = (color == 1 ? 1 : 2) + ret;
+		
+		BigInteger base13 = new BigInteger(ret, 13);
+		ret = encodeToBase90(base13); //Encoded board
+
+		return ret;
+	}
+	
+	/**
+	 * Collects positions by playing random games from the test positions
+	 * 
+	 * @param count The number of positions
+	 * @return Copies of the boards of the positions
+	 */
+	private static List<Board> randomPositions(int count)
+	{
+		Random rng = new Random(2023);
+		List<Board> positions = new ArrayList<>();
+		int[] moves = new int[Board.MAX_MOVES];
+		for (int game=0;positions.size() < count;game++)
+		{
+			Board board = setupPosition(POSITIONS[game % POSITIONS.length]);
+			for (int ply=0;ply<80 && positions.size() < count;ply++)
+			{
+				positions.add(board.copy());
+				int moveCount = board.generateMoves(board.getSideToMove(), moves);
+				if (moveCount == 0)
+				{
+					break;
+				}
+				board.executeMove(moves[rng.nextInt(moveCount)]);
+			}
+		}
+		return positions;
+	}
+	
+	/**
+	 * Checks that every position survives a PositionCodec round trip (and that its color mirror gives the
+	 * same record), then compares encoding speed and size against the old base-90 string encoding
+	 * 
+	 * @param count The number of positions
+	 * @return True if every round trip succeeded
+	 */
+	public static boolean codec(int count)
+	{
+		DecimalFormat df = new DecimalFormat("###,###,###,###.#");
+		List<Board> positions = randomPositions(count);
+		
+		int roundTripFailures = 0;
+		int mirrorFailures = 0;
+		for (Board board : positions)
+		{
+			byte[] record = PositionCodec.encode(board);
+			Board decoded = new Board();
+			PositionCodec.decode(record, 0, decoded, board.getSideToMove());
+			if (decoded.getZobristKey() != board.getZobristKey() || !Arrays.equals(PositionCodec.encode(decoded), record))
+			{
+				roundTripFailures++;
+			}
+			
+			Board mirrored = new Board();
+			Color otherColor = Board.oppositeColor(board.getSideToMove());
+			PositionCodec.decode(record, 0, mirrored, otherColor);
+			if (!Arrays.equals(PositionCodec.encode(mirrored), record)
+					|| mirrored.countMoves(otherColor) != board.countMoves(board.getSideToMove()))
+			{
+				mirrorFailures++;
+			}
+		}
+		
+		//Throughput (repeated so the JIT has compiled both encoders)
+		byte[] buffer = new byte[PositionCodec.RECORD_BYTES];
+		long legacyBytes = 0;
+		long legacyTime = 0, codecTime = 0, decodeTime = 0;
+		for (int round=0;round<3;round++)
+		{
+			long timeStart = System.nanoTime();
+			for (Board board : positions)
+			{
+				legacyBytes += legacyCompressState(board, board.getSideToMove().equals(Color.WHITE) ? 1 : -1).length();
+			}
+			legacyTime = System.nanoTime() - timeStart;
+			
+			timeStart = System.nanoTime();
+			for (int repeat=0;repeat<20;repeat++)
+			{
+				for (Board board : positions)
+				{
+					PositionCodec.encode(board, buffer, 0);
+				}
+			}
+			codecTime = (System.nanoTime() - timeStart) / 20;
+			
+			timeStart = System.nanoTime();
+			for (Board board : positions)
+			{
+				PositionCodec.encode(board, buffer, 0);
+				PositionCodec.decode(buffer, 0, new Board(), board.getSideToMove());
+			}
+			decodeTime = System.nanoTime() - timeStart - codecTime;
+		}
+		legacyBytes /= 3;
+		
+		int n = positions.size();
+		System.out.println("----- Position Codec (" + n + " positions) -----");
+		System.out.println("ROUND TRIP FAILURES: " + roundTripFailures + " | MIRROR FAILURES: " + mirrorFailures);
+		System.out.println("Base-90 String | Size: " + df.format(legacyBytes / (double) n) + " chars (+ String overhead)"
+				+ " | Encode: " + df.format(legacyTime / (double) n) + " ns");
+		System.out.println("PositionCodec  | Size: " + PositionCodec.RECORD_BYTES + " bytes"
+				+ " | Encode: " + df.format(codecTime / (double) n) + " ns"
+				+ " | Decode: " + df.format(decodeTime / (double) n) + " ns");
+		System.out.println("ENCODE SPEEDUP: " + df.format(legacyTime / (double) Math.max(1, codecTime)) + "x");
+		boolean passed = roundTripFailures == 0 && mirrorFailures == 0;
+		System.out.println(passed ? "PASSED" : "FAILED");
+		return passed;
+	}
+	
+	/**
+	 * Calculates the tapered material, piece-square and bishop pair score the way the evaluation did
+	 * before packed scores: separate midgame and endgame passes over the piece lists for each term, with
+	 * the piece-square tables declared again on every call (kept to compare against)
+	 * 
+	 * @param board The board
+	 * @return The score (positive favoring white)
+	 */
+	private static int legacyMaterialPosition(Board board)
+	{
+		int[] delta = new int[2]; //Midgame, endgame
+		for (int stage=0;stage<2;stage++)
+		{
+			boolean isEndgame = stage == 1;
+			for (int c=0;c<2;c++)
+			{
+				Color col = c == 0 ? Color.WHITE : Color.BLACK;
+				int sign = c == 0 ? 1 : -1;
+				
+				//Material
+				int[] mg_value = { 82, 337, 365, 477, 1025,  0};
+				int[] eg_value = { 94, 281, 297, 512,  936,  0};
+				for (int pieceEnum=1;pieceEnum<=6;pieceEnum++)
+				{
+					int[] value = isEndgame ? eg_value : mg_value;
+					delta[stage] += sign * value[pieceEnum-1] * board.getPiecesOfType(pieceEnum, col).size();
+				}
+				
+				//Position (the twelve tables were array literals in the method)
+				int[][] mg_piece_table = new int[6][];
+				int[][] eg_piece_table = new int[6][];
+				for (int i=0;i<6;i++)
+				{
+					mg_piece_table[i] = Evaluation.MG_TABLES[i].clone();
+					eg_piece_table[i] = Evaluation.EG_TABLES[i].clone();
+				}
+				for (int pieceEnum=1;pieceEnum<=6;pieceEnum++)
+				{
+					for (Piece p : board.getPiecesOfType(pieceEnum, col))
+					{
+						Location l = p.getLocation();
+						int r = p.getColor().equals(Game.NEAR_COLOR) ? l.getRow() : 7 - l.getRow();
+						int pos = 8*r + l.getCol();
+						delta[stage] += sign * (isEndgame ? eg_piece_table : mg_piece_table)[p.getEnum()-1][pos];
+					}
+				}
+				
+				//Bishop pair
+				delta[stage] += sign * (isEndgame && board.getPiecesOfType(Bishop.ENUM, col).size() == 2 ? 15 : 0);
+			}
+		}
+		
+		//Phase
+		int[] pieceP = {0,1,1,2,4};
+		int totP = 24;
+		int curP = totP;
+		for (int c=0;c<2;c++)
+		{
+			for (int piece=0;piece<5;piece++)
+			{
+				curP -= board.getPiecesOfType(piece+1, c == 0 ? Color.WHITE : Color.BLACK).size() * pieceP[piece];
+			}
+		}
+		int phase = (curP * 256 + (totP/2))/totP;
+		return ((delta[0] * (256 - phase)) + (delta[1] * phase))/256;
+	}
+	
+	/**
+	 * Checks that the packed material/position evaluation (from scratch and from the board's running
+	 * totals) scores every position the same as the old separate passes, and that the terms the lazy
+	 * evaluation skips stay within its margin, then compares their speed
+	 * 
+	 * @param count The number of positions
+	 * @return True if every score matched and no position went past the lazy margin
+	 */
+	public static boolean evaluation(int count)
+	{
+		DecimalFormat df = new DecimalFormat("###,###,###,###.#");
+		List<Board> positions = randomPositions(count);
+		
+		int mismatches = 0;
+		int marginFailures = 0;
+		int worstExcess = 0;
+		for (Board board : positions)
+		{
+			int legacy = legacyMaterialPosition(board);
+			if (Evaluation.calculateMaterialPositionFull(board) != legacy || Evaluation.calculateMaterialPosition(board) != legacy)
+			{
+				mismatches++;
+			}
+			int excess = Evaluation.lazyMarginExcess(board);
+			if (excess > 0)
+			{
+				marginFailures++;
+				worstExcess = Math.max(worstExcess, excess);
+			}
+		}
+		
+		//Throughput (repeated so the JIT has compiled every version)
+		long legacyTime = 0, fullTime = 0, incrementalTime = 0, evaluateTime = 0;
+		long sum = 0;
+		for (int round=0;round<3;round++)
+		{
+			long timeStart = System.nanoTime();
+			for (Board board : positions)
+			{
+				sum += legacyMaterialPosition(board);
+			}
+			legacyTime = System.nanoTime() - timeStart;
+			
+			timeStart = System.nanoTime();
+			for (Board board : positions)
+			{
+				sum += Evaluation.calculateMaterialPositionFull(board);
+			}
+			fullTime = System.nanoTime() - timeStart;
+			
+			timeStart = System.nanoTime();
+			for (Board board : positions)
+			{
+				sum += Evaluation.calculateMaterialPosition(board);
+			}
+			incrementalTime = System.nanoTime() - timeStart;
+			
+			timeStart = System.nanoTime();
+			for (Board board : positions)
+			{
+				sum += Evaluation.evaluate(board).value;
+			}
+			evaluateTime = System.nanoTime() - timeStart;
+		}
+		
+		int n = positions.size();
+		System.out.println("----- Evaluation (" + n + " positions, checksum " + sum + ") -----");
+		System.out.println("SCORE MISMATCHES: " + mismatches + " | PAST THE LAZY MARGIN: " + marginFailures
+				+ (marginFailures > 0 ? " (by up to " + worstExcess + ")" : ""));
+		System.out.println("Separate passes   | " + df.format(legacyTime / (double) n) + " ns");
+		System.out.println("Packed, one pass  | " + df.format(fullTime / (double) n) + " ns"
+				+ " | Speedup: " + df.format(legacyTime / (double) Math.max(1, fullTime)) + "x");
+		System.out.println("Packed, running   | " + df.format(incrementalTime / (double) n) + " ns"
+				+ " | Speedup: " + df.format(legacyTime / (double) Math.max(1, incrementalTime)) + "x");
+		System.out.println("Full evaluate     | " + df.format(evaluateTime / (double) n) + " ns");
+		boolean passed = mismatches == 0 && marginFailures == 0;
+		System.out.println(passed ? "PASSED" : "FAILED");
+		return passed;
+	}
+	
+	/**
+	 * Scores king safety the way the evaluation did before it used the king zone: a check and the
+	 * occupied squares next to the king that the enemy attacks
+	 */
+	private static int legacyKingSafety(Board board, Color col)
+	{
+		int score = 0;
+		int kingSquare = Bitboard.square(board.getKing(col).getLocation());
+		long attacked = board.attackedSquares(Board.oppositeColor(col));
+		if ((attacked & (1L << kingSquare)) != 0)
+			score -= 40;
+		long adjacent = Bitboard.KING_ATTACKS[kingSquare] & board.getOccupied();
+		score -= 10 * Long.bitCount(adjacent & attacked);
+		return score;
+	}
+	
+	/**
+	 * Times the king safety evaluation (both kings, per call) and measures what it allocates, against
+	 * the old attacked-squares version
+	 * 
+	 * @param count The number of positions
+	 * @return True if a call takes under a microsecond and allocates nothing
+	 */
+	public static boolean kingSafety(int count)
+	{
+		DecimalFormat df = new DecimalFormat("###,###,###,###.#");
+		List<Board> positions = randomPositions(count);
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+		
+		//Repeated so the JIT has compiled both versions
+		long legacyTime = 0, zoneTime = 0, zoneBytes = 0;
+		long sum = 0;
+		for (int round=0;round<5;round++)
+		{
+			long timeStart = System.nanoTime();
+			for (Board board : positions)
+			{
+				sum += legacyKingSafety(board, Color.WHITE) - legacyKingSafety(board, Color.BLACK);
+			}
+			legacyTime = System.nanoTime() - timeStart;
+			
+			long bytesStart = threads.getThreadAllocatedBytes(threadId);
+			timeStart = System.nanoTime();
+			for (Board board : positions)
+			{
+				sum += Evaluation.calculateKingSafety(board, Bitboard.WHITE) - Evaluation.calculateKingSafety(board, Bitboard.BLACK);
+			}
+			zoneTime = System.nanoTime() - timeStart;
+			zoneBytes = threads.getThreadAllocatedBytes(threadId) - bytesStart;
+		}
+		
+		int n = positions.size();
+		double nsPerCall = zoneTime / (double) n;
+		double bytesPerCall = zoneBytes / (double) n;
+		System.out.println("----- King Safety (" + n + " positions, checksum " + sum + ") -----");
+		System.out.println("Attacked squares  | " + df.format(legacyTime / (double) n) + " ns");
+		System.out.println("King zone         | " + df.format(nsPerCall) + " ns | " + df.format(bytesPerCall) + " bytes allocated"
+				+ " | Speedup: " + df.format(legacyTime / (double) Math.max(1, zoneTime)) + "x");
+		boolean passed = nsPerCall < 1000 && bytesPerCall < 1;
+		System.out.println(passed ? "PASSED" : "FAILED");
+		return passed;
+	}
+	
+	/**
+	 * Static exchange evaluation the way it was before it used attack sets: executes the exchange on the
+	 * board (recapturing with the least valuable of the pieces found by getAllAttackers) and undoes it
+	 */
+	private static int legacySEE(Board board, int m)
+	{
+		int square = PackedMove.to(m);
+		Location loc = Bitboard.location(square);
+		Piece mover = board.get(Bitboard.location(PackedMove.from(m)));
+		Color color = mover.getColor();
+		
+		int[] moves = new int[32];
+		int[] gain = new int[32];
+		int d = 0;
+		int onSquare = mover.getValue();
+		gain[0] = board.get(loc).getValue();
+		moves[0] = m;
+		board.executeMove(m);
+		
+		color = Board.oppositeColor(color);
+		Piece attackDef = legacySmallestAttacker(board, loc, color);
+		while (attackDef != null) {
+			d++;
+			gain[d] = onSquare - gain[d-1];
+			if (Math.max(-gain[d-1], gain[d]) < 0) {
+				d--;
+				break;
+			}
+			int from = Bitboard.square(attackDef.getLocation());
+			moves[d] = PackedMove.encode(from, square, attackDef.getEnum(), board.pieceEnumAt(square), 0);
+			board.executeMove(moves[d]);
+			
+			color = Board.oppositeColor(color);
+			onSquare = attackDef.getValue();
+			attackDef = legacySmallestAttacker(board, loc, color);
+		}
+		for (int i=d;i>=1;i--) {
+			gain[i-1] = -Math.max(-gain[i-1], gain[i]);
+		}
+		for (int i=d;i>=0;i--) {
+			board.undoMove(moves[i]);
+		}
+		return gain[0];
+	}
+	
+	private static Piece legacySmallestAttacker(Board board, Location loc, Color color)
+	{
+		Piece smallest = null;
+		for (Piece p: board.getAllAttackers(loc, color))
+		{
+			if (smallest == null || p.getValue() < smallest.getValue())
+			{
+				smallest = p;
+			}
+		}
+		return smallest;
+	}
+	
+	/**
+	 * Checks that the bitboard SEE gives the same result as the old one for every capture of the side to
+	 * move in each position (and leaves the board alone), then compares their speed
+	 * 
+	 * @param count The number of positions
+	 * @return True if every result matched
+	 */
+	public static boolean staticExchange(int count)
+	{
+		DecimalFormat df = new DecimalFormat("###,###,###,###.#");
+		List<Board> positions = randomPositions(count);
+		List<Board> boards = new ArrayList<>();
+		List<Integer> captures = new ArrayList<>();
+		int[] moves = new int[Board.MAX_MOVES];
+		for (Board board : positions)
+		{
+			int moveCount = board.generateMoves(board.getSideToMove(), moves);
+			for (int i=0;i<moveCount;i++)
+			{
+				if (PackedMove.isCapture(moves[i]))
+				{
+					boards.add(board);
+					captures.add(moves[i]);
+				}
+			}
+		}
+		
+		int mismatches = 0;
+		int boardChanges = 0;
+		for (int i=0;i<captures.size();i++)
+		{
+			Board board = boards.get(i);
+			long key = board.getZobristKey();
+			long occupied = board.getOccupied();
+			if (Evaluation.SEE(board, captures.get(i)) != legacySEE(board, captures.get(i)))
+			{
+				mismatches++;
+			}
+			if (board.getZobristKey() != key || board.getOccupied() != occupied)
+			{
+				boardChanges++;
+			}
+		}
+		
+		//Throughput (repeated so the JIT has compiled both versions)
+		long legacyTime = 0, bitboardTime = 0;
+		long sum = 0;
+		int n = captures.size();
+		for (int round=0;round<3;round++)
+		{
+			long timeStart = System.nanoTime();
+			for (int i=0;i<n;i++)
+			{
+				sum += legacySEE(boards.get(i), captures.get(i));
+			}
+			legacyTime = System.nanoTime() - timeStart;
+			
+			timeStart = System.nanoTime();
+			for (int i=0;i<n;i++)
+			{
+				sum += Evaluation.SEE(boards.get(i), captures.get(i));
+			}
+			bitboardTime = System.nanoTime() - timeStart;
+		}
+		
+		System.out.println("----- Static Exchange (" + n + " captures, checksum " + sum + ") -----");
+		System.out.println("RESULT MISMATCHES: " + mismatches + " | BOARDS CHANGED: " + boardChanges);
+		System.out.println("Execute and undo  | " + df.format(legacyTime / (double) n) + " ns");
+		System.out.println("Attack sets       | " + df.format(bitboardTime / (double) n) + " ns"
+				+ " | Speedup: " + df.format(legacyTime / (double) Math.max(1, bitboardTime)) + "x");
+		boolean passed = mismatches == 0 && boardChanges == 0;
+		System.out.println(passed ? "PASSED" : "FAILED");
+		return passed;
+	}
+	
+	/**
+	 * Records random walks from the test positions, that play random moves and now and then take one back
+	 * 
+	 * @param games The number of walks
+	 * @param steps The number of steps in each walk
+	 * @return Per walk, the packed moves played (UNDO for a move taken back)
+	 */
+	private static int[][] randomWalks(int games, int steps)
+	{
+		Random rng = new Random(2024);
+		int[][] walks = new int[games][];
+		int[] moves = new int[Board.MAX_MOVES];
+		int[] played = new int[steps];
+		for (int game=0;game<games;game++)
+		{
+			Board board = setupPosition(POSITIONS[game % POSITIONS.length]);
+			int[] walk = new int[steps];
+			int length = 0;
+			int ply = 0;
+			for (;length<steps;length++)
+			{
+				if (ply > 0 && rng.nextInt(5) == 0)
+				{
+					board.undoMove(played[--ply]);
+					walk[length] = UNDO;
+					continue;
+				}
+				int moveCount = board.generateMoves(board.getSideToMove(), moves);
+				if (moveCount == 0)
+				{
+					break;
+				}
+				played[ply++] = moves[rng.nextInt(moveCount)];
+				board.executeMove(played[ply-1]);
+				walk[length] = played[ply-1];
+			}
+			walks[game] = Arrays.copyOf(walk, length);
+		}
+		return walks;
+	}
+	
+	private static final int UNDO = -1;
+	
+	/**
+	 * Checks that the network's accumulators, kept up to date by moves and undos over random walks, always
+	 * match the ones summed from scratch, then times evaluations of distinct positions through
+	 * Evaluation.evaluate with the hand-written terms and with the network (evaluation cache emptied before
+	 * every round, so each call evaluates)
+	 * 
+	 * @param count The number of positions (and count / 100 random walks)
+	 * @param fileName The weights file, or null for a random network
+	 * @return True if the accumulators always matched
+	 * @throws IOException
+	 */
+	public static boolean nnue(int count, String fileName) throws IOException
+	{
+		DecimalFormat df = new DecimalFormat("###,###,###,###.#");
+		NnueNetwork network;
+		if (fileName != null)
+		{
+			network = NnueNetwork.load(fileName);
+		}
+		else
+		{
+			java.io.File file = java.io.File.createTempFile("benchmark", ".nnue");
+			NnueNetwork.writeRandom(file.getPath(), 256, 32, 32, 2024);
+			network = NnueNetwork.load(file.getPath());
+			file.delete();
+		}
+		int[][] walks = randomWalks(Math.max(1, count / 100), 120);
+		
+		//Incremental accumulators against fresh ones
+		int mismatches = 0;
+		int[] played = new int[Board.MAX_PLY];
+		NnueAccumulator fresh = new NnueAccumulator(network);
+		for (int game=0;game<walks.length;game++)
+		{
+			Board board = setupPosition(POSITIONS[game % POSITIONS.length]);
+			NnueAccumulator incremental = new NnueAccumulator(network);
+			board.setAccumulator(incremental);
+			int ply = 0;
+			for (int move : walks[game])
+			{
+				if (move == UNDO)
+				{
+					board.undoMove(played[--ply]);
+				}
+				else
+				{
+					played[ply++] = move;
+					board.executeMove(move);
+				}
+				incremental.update(board);
+				fresh.refresh(board, Bitboard.WHITE);
+				fresh.refresh(board, Bitboard.BLACK);
+				if (!Arrays.equals(incremental.values(Bitboard.WHITE), fresh.values(Bitboard.WHITE))
+						|| !Arrays.equals(incremental.values(Bitboard.BLACK), fresh.values(Bitboard.BLACK)))
+				{
+					mismatches++;
+				}
+			}
+		}
+		
+		//Distinct positions only, so no evaluation in a round is a cache hit
+		List<Board> positions = new ArrayList<>();
+		java.util.Set<Long> keys = new java.util.HashSet<>();
+		for (Board board : randomPositions(count))
+		{
+			if (keys.add(board.getZobristKey()))
+			{
+				positions.add(board);
+				network.evaluate(board); //Attaches its accumulator, as a search's board has one
+			}
+		}
+		
+		//Throughput (the fastest of several rounds, so the JIT has compiled every version and a round
+		//slowed down by the rest of the machine doesn't count)
+		long classicTime = Long.MAX_VALUE, nnueTime = Long.MAX_VALUE, refreshTime = Long.MAX_VALUE;
+		long sum = 0;
+		for (int round=0;round<5;round++)
+		{
+			Evaluation.setNetwork(null); //Also empties the caches
+			long timeStart = System.nanoTime();
+			for (Board board : positions)
+			{
+				sum += Evaluation.evaluate(board).value;
+			}
+			classicTime = Math.min(classicTime, System.nanoTime() - timeStart);
+			
+			Evaluation.setNetwork(network);
+			timeStart = System.nanoTime();
+			for (Board board : positions)
+			{
+				sum += Evaluation.evaluate(board).value;
+			}
+			nnueTime = Math.min(nnueTime, System.nanoTime() - timeStart);
+			
+			//The accumulators summed from scratch first (the cost after a king move)
+			timeStart = System.nanoTime();
+			for (Board board : positions)
+			{
+				board.getAccumulator().refresh(board, Bitboard.WHITE);
+				board.getAccumulator().refresh(board, Bitboard.BLACK);
+				sum += network.evaluate(board);
+			}
+			refreshTime = Math.min(refreshTime, System.nanoTime() - timeStart);
+		}
+		Evaluation.setNetwork(null);
+		
+		int n = positions.size();
+		System.out.println("----- NNUE (" + network.getAccumulatorSize() + "x2-" + network.getL2() + "-" + network.getL3() + "-1, "
+				+ n + " positions, checksum " + sum + ") -----");
+		System.out.println("ACCUMULATOR MISMATCHES: " + mismatches);
+		System.out.println("Hand-written              | " + df.format(n / (classicTime / 1e9)) + " evals/s"
+				+ " | " + df.format(classicTime / (double) n) + " ns");
+		System.out.println("Network                   | " + df.format(n / (nnueTime / 1e9)) + " evals/s"
+				+ " | " + df.format(nnueTime / (double) n) + " ns"
+				+ " | " + new DecimalFormat("0.00").format(classicTime / (double) nnueTime) + "x");
+		System.out.println("Network, accumulator anew | " + df.format(n / (refreshTime / 1e9)) + " evals/s"
+				+ " | " + df.format(refreshTime / (double) n) + " ns");
+		System.out.println(mismatches == 0 ? "PASSED" : "FAILED");
+		return mismatches == 0;
+	}
+	
+	public static void main(String[] args) throws IOException, InterruptedException
+	{
+		String benchmark = args.length > 0 ? args[0] : "ttd";
+		if (benchmark.equals("ttd"))
+		{
+			int depth = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+			int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+			timeToDepth(depth, threads);
+		}
+		else if (benchmark.equals("ttstress"))
+		{
+			int threads = args.length > 1 ? Integer.parseInt(args[1]) : Math.max(8, Runtime.getRuntime().availableProcessors());
+			int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+			if (!transpositionStress(threads, seconds))
+			{
+				System.exit(1);
+			}
+		}
+		else if (benchmark.equals("codec"))
+		{
+			int positions = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+			if (!codec(positions))
+			{
+				System.exit(1);
+			}
+		}
+		else if (benchmark.equals("eval"))
+		{
+			int positions = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+			if (!evaluation(positions))
+			{
+				System.exit(1);
+			}
+		}
+		else if (benchmark.equals("king"))
+		{
+			int positions = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+			if (!kingSafety(positions))
+			{
+				System.exit(1);
+			}
+		}
+		else if (benchmark.equals("see"))
+		{
+			int positions = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+			if (!staticExchange(positions))
+			{
+				System.exit(1);
+			}
+		}
+		else if (benchmark.equals("nnue"))
+		{
+			int positions = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+			if (!nnue(positions, args.length > 2 ? args[2] : null))
+			{
+				System.exit(1);
+			}
+		}
+		else
+		{
+			System.out.println("Unknown benchmark: " + benchmark);
+		}
+	}
+}
@@ -0,0 +1,331 @@
+import java.awt.Color;
+import java.util.Random;
+
+/**
+ * Precomputed attack tables and helpers for the 64-bit board representation. Squares are indexed
+ * as row * 8 + col, so bit 0 is location (0, 0) and bit 63 is location (7, 7).
+ *
+ * Slider attacks use magic bitboards: the relevant blockers of a square are multiplied by a magic
+ * number and shifted down to index a table holding the attack set for that blocker pattern.
+ */
+public final class Bitboard
+{
+	public static final int WHITE = 0;
+	public static final int BLACK = 1;
+
+	public static final long[] FILES = new long[8];
+	public static final long[] ROWS = new long[8];
+
+	public static final long[] KNIGHT_ATTACKS = new long[64];
+	public static final long[] KING_ATTACKS = new long[64];
+	public static final long[][] PAWN_ATTACKS = new long[2][64]; //Squares a pawn of [side] on [sq] attacks
+
+	public static final long[][] BETWEEN = new long[64][64]; //Squares strictly between two aligned squares
+	public static final long[][] LINE = new long[64][64]; //Full line through two aligned squares (0 if not aligned)
+
+	//Pawn movement, depends on which side of the board each color starts on
+	public static final int[] PAWN_PUSH = new int[2]; //Square offset of a single pawn push
+	public static final int[] PAWN_START_ROW = new int[2];
+	public static final int[] PROMOTION_ROW = new int[2];
+
+	//Magic bitboards
+	private static final long[] ROOK_MASKS = new long[64];
+	private static final long[] ROOK_MAGICS = new long[64];
+	private static final int[] ROOK_SHIFTS = new int[64];
+	private static final long[][] ROOK_TABLE = new long[64][];
+
+	private static final long[] BISHOP_MASKS = new long[64];
+	private static final long[] BISHOP_MAGICS = new long[64];
+	private static final int[] BISHOP_SHIFTS = new int[64];
+	private static final long[][] BISHOP_TABLE = new long[64][];
+
+	private static final int[][] ROOK_DIRECTIONS = { {-1, 0}, {1, 0}, {0, -1}, {0, 1} };
+	private static final int[][] BISHOP_DIRECTIONS = { {-1, -1}, {-1, 1}, {1, -1}, {1, 1} };
+
+	private static final Location[] LOCATIONS = new Location[64];
+
+	static
+	{
+		for (int sq = 0; sq < 64; sq++)
+		{
+			LOCATIONS[sq] = new Location(sq / 8, sq % 8);
+			FILES[sq % 8] |= 1L << sq;
+			ROWS[sq / 8] |= 1L << sq;
+		}
+
+		//Pawn direction (near color moves up the board, toward row 0)
+		int nearSide = Game.NEAR_COLOR.equals(Color.WHITE) ? WHITE : BLACK;
+		PAWN_PUSH[nearSide] = -8;
+		PAWN_PUSH[1 - nearSide] = 8;
+		PAWN_START_ROW[nearSide] = 6;
+		PAWN_START_ROW[1 - nearSide] = 1;
+		PROMOTION_ROW[nearSide] = 0;
+		PROMOTION_ROW[1 - nearSide] = 7;
+
+		int[] knightDr = { -2, -1, 1, 2, -2, -1, 1, 2 };
+		int[] knightDc = { -1, -2, -2, -1, 1, 2, 2, 1 };
+		int[] kingDr = { -1, -1, -1, 1, 1, 1, 0, 0 };
+		int[] kingDc = { 0, 1, -1, 0, 1, -1, 1, -1 };
+		for (int sq = 0; sq < 64; sq++)
+		{
+			int r = sq / 8;
+			int c = sq % 8;
+			for (int i = 0; i < 8; i++)
+			{
+				KNIGHT_ATTACKS[sq] |= bit(r + knightDr[i], c + knightDc[i]);
+				KING_ATTACKS[sq] |= bit(r + kingDr[i], c + kingDc[i]);
+			}
+			for (int side = 0; side < 2; side++)
+			{
+				int dr = PAWN_PUSH[side] / 8;
+				PAWN_ATTACKS[side][sq] = bit(r + dr, c - 1) | bit(r + dr, c + 1);
+			}
+		}
+
+		//Fixed seed so the magics (and startup time) are the same on every run
+		Random rng = new Random(20230329L);
+		for (int sq = 0; sq < 64; sq++)
+		{
+			ROOK_MASKS[sq] = relevantMask(sq, ROOK_DIRECTIONS);
+			ROOK_SHIFTS[sq] = 64 - Long.bitCount(ROOK_MASKS[sq]);
+			ROOK_TABLE[sq] = new long[1 << Long.bitCount(ROOK_MASKS[sq])];
+			ROOK_MAGICS[sq] = findMagic(sq, ROOK_MASKS[sq], ROOK_SHIFTS[sq], ROOK_TABLE[sq], ROOK_DIRECTIONS, rng);
+
+			BISHOP_MASKS[sq] = relevantMask(sq, BISHOP_DIRECTIONS);
+			BISHOP_SHIFTS[sq] = 64 - Long.bitCount(BISHOP_MASKS[sq]);
+			BISHOP_TABLE[sq] = new long[1 << Long.bitCount(BISHOP_MASKS[sq])];
+			BISHOP_MAGICS[sq] = findMagic(sq, BISHOP_MASKS[sq], BISHOP_SHIFTS[sq], BISHOP_TABLE[sq], BISHOP_DIRECTIONS, rng);
+		}
+
+		for (int a = 0; a < 64; a++)
+		{
+			for (int b = 0; b < 64; b++)
+			{
+				if (a == b)
+				{
+					continue;
+				}
+				long ab = (1L << a) | (1L << b);
+				if ((rookAttacks(a, 0L) & (1L << b)) != 0)
+				{
+					BETWEEN[a][b] = rookAttacks(a, 1L << b) & rookAttacks(b, 1L << a);
+					LINE[a][b] = (rookAttacks(a, 0L) & rookAttacks(b, 0L)) | ab;
+				}
+				else if ((bishopAttacks(a, 0L) & (1L << b)) != 0)
+				{
+					BETWEEN[a][b] = bishopAttacks(a, 1L << b) & bishopAttacks(b, 1L << a);
+					LINE[a][b] = (bishopAttacks(a, 0L) & bishopAttacks(b, 0L)) | ab;
+				}
+			}
+		}
+	}
+
+	private Bitboard()
+	{
+	}
+
+	/**
+	 * Returns the single bit of a row and column, or 0 if it's off the board
+	 */
+	private static long bit(int r, int c)
+	{
+		if (r < 0 || r > 7 || c < 0 || c > 7)
+		{
+			return 0L;
+		}
+		return 1L << (r * 8 + c);
+	}
+
+	/**
+	 * Walks each direction from a square until blocked, including the blocking square
+	 *
+	 * @param sq The starting square
+	 * @param occ The occupied squares
+	 * @param directions The row/column steps to walk
+	 * @return The attack set
+	 */
+	private static long slidingAttacks(int sq, long occ, int[][] directions)
+	{
+		long attacks = 0L;
+		for (int[] d : directions)
+		{
+			int r = sq / 8 + d[0];
+			int c = sq % 8 + d[1];
+			while (r >= 0 && r <= 7 && c >= 0 && c <= 7)
+			{
+				long b = 1L << (r * 8 + c);
+				attacks |= b;
+				if ((occ & b) != 0)
+				{
+					break;
+				}
+				r += d[0];
+				c += d[1];
+			}
+		}
+		return attacks;
+	}
+
+	/**
+	 * Returns the squares whose occupancy can change a slider's attacks (edges excluded)
+	 */
+	private static long relevantMask(int sq, int[][] directions)
+	{
+		long mask = 0L;
+		for (int[] d : directions)
+		{
+			int r = sq / 8 + d[0];
+			int c = sq % 8 + d[1];
+			while (r + d[0] >= 0 && r + d[0] <= 7 && c + d[1] >= 0 && c + d[1] <= 7)
+			{
+				mask |= 1L << (r * 8 + c);
+				r += d[0];
+				c += d[1];
+			}
+		}
+		return mask;
+	}
+
+	/**
+	 * Searches for a magic number that maps every blocker subset of the mask to a table slot
+	 * without destructive collisions, and fills the attack table with it
+	 *
+	 * @return The magic number
+	 */
+	private static long findMagic(int sq, long mask, int shift, long[] table, int[][] directions, Random rng)
+	{
+		int size = 1 << Long.bitCount(mask);
+		long[] subsets = new long[size];
+		long[] attacks = new long[size];
+
+		//Enumerate all subsets of the mask (carry-rippler)
+		long subset = 0L;
+		for (int i = 0; i < size; i++)
+		{
+			subsets[i] = subset;
+			attacks[i] = slidingAttacks(sq, subset, directions);
+			subset = (subset - mask) & mask;
+		}
+
+		while (true)
+		{
+			long magic = rng.nextLong() & rng.nextLong() & rng.nextLong();
+			if (Long.bitCount((mask * magic) & 0xFF00000000000000L) < 6)
+			{
+				continue;
+			}
+			java.util.Arrays.fill(table, 0L);
+			boolean failed = false;
+			for (int i = 0; i < size && !failed; i++)
+			{
+				int index = (int) ((subsets[i] * magic) >>> shift);
+				if (table[index] == 0L)
+				{
+					table[index] = attacks[i];
+				}
+				else if (table[index] != attacks[i])
+				{
+					failed = true;
+				}
+			}
+			if (!failed)
+			{
+				return magic;
+			}
+		}
+	}
+
+	/**
+	 * Returns the rook attacks from a square given the occupied squares
+	 */
+	public static long rookAttacks(int sq, long occ)
+	{
+		return ROOK_TABLE[sq][(int) (((occ & ROOK_MASKS[sq]) * ROOK_MAGICS[sq]) >>> ROOK_SHIFTS[sq])];
+	}
+
+	/**
+	 * Returns the bishop attacks from a square given the occupied squares
+	 */
+	public static long bishopAttacks(int sq, long occ)
+	{
+		return BISHOP_TABLE[sq][(int) (((occ & BISHOP_MASKS[sq]) * BISHOP_MAGICS[sq]) >>> BISHOP_SHIFTS[sq])];
+	}
+
+	/**
+	 * Returns the queen attacks from a square given the occupied squares
+	 */
+	public static long queenAttacks(int sq, long occ)
+	{
+		return rookAttacks(sq, occ) | bishopAttacks(sq, occ);
+	}
+
+	/**
+	 * Returns the squares a piece attacks from a square (pawns only return their captures)
+	 *
+	 * @param pieceEnum The type of piece
+	 * @param side The side of the piece (0 - White, 1 - Black)
+	 * @param sq The square of the piece
+	 * @param occ The occupied squares
+	 * @return The attack set
+	 */
+	public static long attacks(int pieceEnum, int side, int sq, long occ)
+	{
+		switch (pieceEnum)
+		{
+			case Pawn.ENUM:
+				return PAWN_ATTACKS[side][sq];
+			case Knight.ENUM:
+				return KNIGHT_ATTACKS[sq];
+			case Bishop.ENUM:
+				return bishopAttacks(sq, occ);
+			case Rook.ENUM:
+				return rookAttacks(sq, occ);
+			case Queen.ENUM:
+				return queenAttacks(sq, occ);
+			default:
+				return KING_ATTACKS[sq];
+		}
+	}
+
+	/**
+	 * Returns every square attacked by a set of pawns
+	 *
+	 * @param pawns The pawns
+	 * @param side The side of the pawns (0 - White, 1 - Black)
+	 * @return The attack set
+	 */
+	public static long pawnAttacks(long pawns, int side)
+	{
+		long notLeft = pawns & ~FILES[0];
+		long notRight = pawns & ~FILES[7];
+		if (PAWN_PUSH[side] > 0)
+		{
+			return (notLeft << 7) | (notRight << 9);
+		}
+		return (notLeft >>> 9) | (notRight >>> 7);
+	}
+
+	/**
+	 * Returns the side index of a color
+	 */
+	public static int side(Color color)
+	{
+		return color.equals(Color.WHITE) ? WHITE : BLACK;
+	}
+
+	/**
+	 * Returns the square index of a location
+	 */
+	public static int square(Location loc)
+	{
+		return loc.getRow() * 8 + loc.getCol();
+	}
+
+	/**
+	 * Returns the (shared) location object of a square index
+	 */
+	public static Location location(int sq)
+	{
+		return LOCATIONS[sq];
+	}
+}
@@ -5,6 +5,30 @@ import java.util.*;
 public class Board extends BoundedGrid<Piece>
 {
 	private ArrayList<Piece>[][] pieces;
+	private long[][] bitboards; //0 - White, 1 - Black; index 0 is every piece of that color, 1-6 Pawn through King
+	private long occupied; //Every occupied square
+	
+	private long zobristKey; //Hash of the piece placement, side to move and castling rights
+	private long pawnKey; //Hash of the pawn placement only (see PawnTable)
+	private Color sideToMove;
+	private int castlingRights; //White rights | Black rights << 2 (see getCastlingRights)
+	
+	//Evaluation terms of the pieces on the board, kept up to date as pieces are put and removed
+	private int[] pieceSquareScore; //Material plus piece-square score (packed midgame/endgame), per side
+	private int[] nonPawnMaterial; //Material without pawns, per side
+	private int phaseWeight; //Sum of the phase weights of the pieces
+	private NnueAccumulator accumulator; //First layer of the network evaluating this board (null if none)
+	
+	public static final int MAX_MOVES = 256; //Upper bound on the moves in one position
+	public static final int MAX_PLY = 256; //Deepest line of packed moves that can be executed at once
+	
+	//History of packed moves being executed, so they can be undone
+	private Piece[] capturedHistory; //Piece captured at each ply
+	private Piece[] promotedHistory; //Pawn replaced by a queen at each ply
+	private boolean[] movedHistory; //Previous 'moved' status of the moving piece
+	private Queen[][] promotionQueens; //Queens reused for promotions made at each ply, per side
+	private int historyPly;
+	private int[] scratchMoves; //Buffer for counting moves
 	
 	// Constructs a new Board with the given dimensions
 	public Board()
@@ -16,7 +40,393 @@ public class Board extends BoundedGrid<Piece>
 				pieces[c][i] = new ArrayList<>();
 			}
 		}
+		bitboards = new long[2][7];
+		occupied = 0L;
+		zobristKey = 0L;
+		pawnKey = 0L;
+		sideToMove = Color.WHITE;
+		castlingRights = 0;
+		pieceSquareScore = new int[2];
+		nonPawnMaterial = new int[2];
+		phaseWeight = 0;
+		
+		capturedHistory = new Piece[MAX_PLY];
+		promotedHistory = new Piece[MAX_PLY];
+		movedHistory = new boolean[MAX_PLY];
+		promotionQueens = new Queen[2][MAX_PLY];
+		historyPly = 0;
+		scratchMoves = new int[MAX_MOVES];
+	}
+	
+	/**
+	 * Creates a copy of this board with its own pieces (same squares, moved flags and color to play),
+	 * so it can be searched on another thread
+	 * 
+	 * @return The copy
+	 */
+	public Board copy()
+	{
+		Board copy = new Board();
+		for (int sq=0;sq<64;sq++)
+		{
+			Piece p = get(Bitboard.location(sq));
+			if (p == null) {
+				continue;
+			}
+			Piece pieceCopy;
+			switch (p.getEnum())
+			{
+				case Pawn.ENUM:
+					pieceCopy = new Pawn(p.getColor(), p.getImageFileName());
+					break;
+				case Knight.ENUM:
+					pieceCopy = new Knight(p.getColor(), p.getImageFileName());
+					break;
+				case Bishop.ENUM:
+					pieceCopy = new Bishop(p.getColor(), p.getImageFileName());
+					break;
+				case Rook.ENUM:
+					pieceCopy = new Rook(p.getColor(), p.getImageFileName());
+					break;
+				case Queen.ENUM:
+					pieceCopy = new Queen(p.getColor(), p.getImageFileName());
+					break;
+				default:
+					pieceCopy = new King(p.getColor(), p.getImageFileName());
+			}
+			pieceCopy.setMoved(p.getMoved());
+			pieceCopy.putSelfInGrid(copy, Bitboard.location(sq));
+		}
+		copy.setSideToMove(sideToMove);
+		copy.refreshCastlingRights();
+		return copy;
+	}
+	
+	/**
+	 * Puts a piece on the board, keeping the bitboards in sync with the grid
+	 */
+	public Piece put(Location loc, Piece obj)
+	{
+		Piece old = super.put(loc, obj);
+		if (old != null) {
+			toggleBitboards(old, loc);
+		}
+		toggleBitboards(obj, loc);
+		return old;
+	}
+	
+	/**
+	 * Removes a piece from the board, keeping the bitboards in sync with the grid
+	 */
+	public Piece remove(Location loc)
+	{
+		Piece old = super.remove(loc);
+		if (old != null) {
+			toggleBitboards(old, loc);
+		}
+		return old;
+	}
+	
+	/**
+	 * Flips the bit of a piece's square in its bitboards (adds if absent, removes if present), and
+	 * adds or takes away the piece's evaluation terms
+	 * @param p The piece
+	 * @param loc The square of the piece
+	 */
+	private void toggleBitboards(Piece p, Location loc)
+	{
+		int sq = Bitboard.square(loc);
+		long b = 1L << sq;
+		int side = Bitboard.side(p.getColor());
+		int pieceEnum = p.getEnum();
+		int sign = (bitboards[side][pieceEnum] & b) == 0 ? 1 : -1;
+		bitboards[side][pieceEnum] ^= b;
+		bitboards[side][0] ^= b;
+		occupied ^= b;
+		zobristKey ^= Zobrist.PIECES[side][pieceEnum][sq];
+		if (pieceEnum == Pawn.ENUM) {
+			pawnKey ^= Zobrist.PIECES[side][pieceEnum][sq];
+		}
 		
+		pieceSquareScore[side] += sign * Evaluation.PIECE_SQUARE[side][pieceEnum][sq];
+		nonPawnMaterial[side] += sign * Evaluation.nonPawnValue(pieceEnum);
+		phaseWeight += sign * Evaluation.phaseWeight(pieceEnum);
+		if (accumulator != null) {
+			accumulator.toggle(side, pieceEnum, sq, sign > 0);
+		}
+	}
+	
+	/**
+	 * Returns the network accumulator kept up to date with this board (null if none, e.g. for a copy)
+	 */
+	public NnueAccumulator getAccumulator()
+	{
+		return accumulator;
+	}
+	
+	/**
+	 * Attaches a network accumulator, which is handed every piece put on or removed from the board from
+	 * now on (see NnueNetwork.evaluate)
+	 * @param accumulator The accumulator (summed from the board before it's first used)
+	 */
+	public void setAccumulator(NnueAccumulator accumulator)
+	{
+		this.accumulator = accumulator;
+	}
+	
+	/**
+	 * Returns the material plus piece-square score of a side, packed (see Evaluation.pack)
+	 * @param side The side (Bitboard.WHITE or Bitboard.BLACK)
+	 */
+	public int getPieceSquareScore(int side)
+	{
+		return pieceSquareScore[side];
+	}
+	
+	/**
+	 * Returns the material of a side, not counting pawns (see Evaluation.isEndgame)
+	 * @param side The side (Bitboard.WHITE or Bitboard.BLACK)
+	 */
+	public int getNonPawnMaterial(int side)
+	{
+		return nonPawnMaterial[side];
+	}
+	
+	/**
+	 * Returns the sum of the phase weights of the pieces on the board (see Evaluation.calculatePhase)
+	 */
+	public int getPhaseWeight()
+	{
+		return phaseWeight;
+	}
+	
+	/**
+	 * Retrieves the Zobrist key of the current state
+	 */
+	public long getZobristKey()
+	{
+		return zobristKey;
+	}
+	
+	/**
+	 * Retrieves the Zobrist key of the pawns alone (0 if there are no pawns)
+	 */
+	public long getPawnKey()
+	{
+		return pawnKey;
+	}
+	
+	/**
+	 * Retrieves the color to play next
+	 */
+	public Color getSideToMove()
+	{
+		return sideToMove;
+	}
+	
+	/**
+	 * Sets the color to play next (for setting up positions)
+	 */
+	public void setSideToMove(Color color)
+	{
+		if (!color.equals(sideToMove)) {
+			toggleSideToMove();
+		}
+	}
+	
+	/**
+	 * Passes the turn to the other color without moving (null move)
+	 */
+	public void makeNullMove()
+	{
+		toggleSideToMove();
+	}
+	
+	/**
+	 * Takes back a null move
+	 */
+	public void undoNullMove()
+	{
+		toggleSideToMove();
+	}
+	
+	/**
+	 * Switches the color to play, updating the key
+	 */
+	private void toggleSideToMove()
+	{
+		sideToMove = oppositeColor(sideToMove);
+		zobristKey ^= Zobrist.SIDE;
+	}
+	
+	/**
+	 * Recalculates the castling rights of both colors, updating the key
+	 * (called after each move, and after pieces are placed onto a new board)
+	 */
+	public void refreshCastlingRights()
+	{
+		int rights = getCastlingRights(Color.WHITE) | getCastlingRights(Color.BLACK) << 2;
+		zobristKey ^= Zobrist.CASTLING[castlingRights] ^ Zobrist.CASTLING[rights];
+		castlingRights = rights;
+	}
+	
+	/**
+	 * Returns the castling rights of both colors as of the last refresh, without recalculating them
+	 * @return White rights | Black rights << 2 (each as in getCastlingRights)
+	 */
+	public int getAllCastlingRights()
+	{
+		return castlingRights;
+	}
+	
+	/**
+	 * Retrieves the bitboard of a certain pieceEnum and color
+	 * @param pieceEnum The enum of the piece (0 for all pieces of the color)
+	 * @param color The color of the piece
+	 * @return The set of squares holding those pieces
+	 */
+	public long getBitboard(int pieceEnum, Color color)
+	{
+		return bitboards[Bitboard.side(color)][pieceEnum];
+	}
+	
+	/**
+	 * Retrieves the bitboard of a certain pieceEnum and side
+	 * @param pieceEnum The enum of the piece (0 for all pieces of the side)
+	 * @param side The side (0 - White, 1 - Black)
+	 * @return The set of squares holding those pieces
+	 */
+	public long getBitboard(int pieceEnum, int side)
+	{
+		return bitboards[side][pieceEnum];
+	}
+	
+	/**
+	 * Retrieves the set of all occupied squares
+	 */
+	public long getOccupied()
+	{
+		return occupied;
+	}
+	
+	/**
+	 * Returns the pieces of a side that attack a square, including pawns regardless
+	 * of what stands on the square
+	 * 
+	 * @param sq The square index
+	 * @param side The attacking side
+	 * @param occ The occupied squares to use for sliders
+	 * @return The set of attacking pieces
+	 */
+	public long attackersTo(int sq, int side, long occ)
+	{
+		long[] bb = bitboards[side];
+		return (Bitboard.PAWN_ATTACKS[1 - side][sq] & bb[Pawn.ENUM])
+				| (Bitboard.KNIGHT_ATTACKS[sq] & bb[Knight.ENUM])
+				| (Bitboard.KING_ATTACKS[sq] & bb[King.ENUM])
+				| (Bitboard.bishopAttacks(sq, occ) & (bb[Bishop.ENUM] | bb[Queen.ENUM]))
+				| (Bitboard.rookAttacks(sq, occ) & (bb[Rook.ENUM] | bb[Queen.ENUM]));
+	}
+	
+	/**
+	 * Returns the pieces of a side whose destinations include a square. A piece never
+	 * "attacks" a square its own side occupies, and pawns only attack occupied squares
+	 * (same as the capture moves they can make)
+	 * 
+	 * @param sq The square index
+	 * @param side The attacking side
+	 * @return The set of attacking pieces
+	 */
+	private long destinationAttackers(int sq, int side)
+	{
+		long b = 1L << sq;
+		if ((bitboards[side][0] & b) != 0) {
+			return 0L;
+		}
+		long attackers = attackersTo(sq, side, occupied);
+		if ((bitboards[1 - side][0] & b) == 0) {
+			attackers &= ~bitboards[side][Pawn.ENUM];
+		}
+		return attackers;
+	}
+	
+	/**
+	 * Returns the squares a piece can move to, not accounting for check
+	 * 
+	 * @param p The piece
+	 * @return The set of destination squares
+	 */
+	public long destinationMask(Piece p)
+	{
+		return destinationMask(p.getEnum(), Bitboard.side(p.getColor()), Bitboard.square(p.getLocation()));
+	}
+	
+	/**
+	 * Returns the squares a piece can move to, not accounting for check
+	 * 
+	 * @param pieceEnum The enum of the piece
+	 * @param side The side of the piece
+	 * @param sq The square of the piece
+	 * @return The set of destination squares
+	 */
+	private long destinationMask(int pieceEnum, int side, int sq)
+	{
+		if (pieceEnum == Pawn.ENUM) {
+			long dests = Bitboard.PAWN_ATTACKS[side][sq] & bitboards[1 - side][0];
+			int up1 = sq + Bitboard.PAWN_PUSH[side];
+			if ((occupied & (1L << up1)) == 0) {
+				dests |= 1L << up1;
+				int up2 = up1 + Bitboard.PAWN_PUSH[side];
+				if (sq / 8 == Bitboard.PAWN_START_ROW[side] && (occupied & (1L << up2)) == 0) {
+					dests |= 1L << up2;
+				}
+			}
+			return dests;
+		}
+		return Bitboard.attacks(pieceEnum, side, sq, occupied) & ~bitboards[side][0];
+	}
+	
+	/**
+	 * Returns the enum of the piece on a square
+	 * 
+	 * @param sq The square index
+	 * @return The piece enum, 0 if the square is empty
+	 */
+	public int pieceEnumAt(int sq)
+	{
+		Piece p = get(Bitboard.location(sq));
+		return p == null ? 0 : p.getEnum();
+	}
+	
+	/**
+	 * Returns every square a color attacks, following the same rules as isAttacked
+	 * 
+	 * @param color The attacking color
+	 * @return The set of attacked squares
+	 */
+	public long attackedSquares(Color color)
+	{
+		int side = Bitboard.side(color);
+		long[] bb = bitboards[side];
+		long attacked = 0L;
+		for (int pieceEnum=2;pieceEnum<=6;pieceEnum++)
+		{
+			long set = bb[pieceEnum];
+			while (set != 0)
+			{
+				int sq = Long.numberOfTrailingZeros(set);
+				set &= set - 1;
+				attacked |= Bitboard.attacks(pieceEnum, side, sq, occupied);
+			}
+		}
+		long pawns = bb[Pawn.ENUM];
+		while (pawns != 0)
+		{
+			int sq = Long.numberOfTrailingZeros(pawns);
+			pawns &= pawns - 1;
+			attacked |= Bitboard.PAWN_ATTACKS[side][sq] & bitboards[1 - side][0];
+		}
+		return attacked & ~bb[0];
 	}
 
 	// Precondition: move has already been made on the board
@@ -51,7 +461,8 @@ public class Board extends BoundedGrid<Piece>
 			((CastleMove) move).getRook().setMoved(move.getMovedBefore());
 		}
 		
-		
+		toggleSideToMove();
+		refreshCastlingRights();
 	}
 	
 	/**
@@ -103,23 +514,12 @@ public class Board extends BoundedGrid<Piece>
 	public ArrayList<Piece> getAllAttackers(Location loc, Color color)
 	{
 		ArrayList<Piece> attackers = new ArrayList<>();
-		
-		for (int pieceEnum=1;pieceEnum<=6;pieceEnum++)
+		long set = destinationAttackers(Bitboard.square(loc), Bitboard.side(color));
+		while (set != 0)
 		{
-			for (Piece p: pieces[color.equals(Color.WHITE) ? 0 : 1][pieceEnum])
-			{
-				ArrayList<Location> dests = p.destinations();
-				for (Location d : dests)
-				{
-					if (p instanceof Pawn && d.getCol() == p.getLocation().getCol()) {
-						continue;
-					}
-					if (d.equals(loc)) {
-						attackers.add(p);
-						break;
-					}
-				}
-			}
+			int sq = Long.numberOfTrailingZeros(set);
+			set &= set - 1;
+			attackers.add(get(Bitboard.location(sq)));
 		}
 		return attackers;
 	}
@@ -133,7 +533,7 @@ public class Board extends BoundedGrid<Piece>
 	 */
 	public boolean isAttacked(Location loc, Color color)
 	{
-		return getAllAttackers(loc, color).size() > 0;
+		return destinationAttackers(Bitboard.square(loc), Bitboard.side(color)) != 0;
 	}
 	
 	/**
@@ -145,17 +545,15 @@ public class Board extends BoundedGrid<Piece>
 	 */
 	public boolean isAttackedBy(Location loc, Piece piece)
 	{
-		ArrayList<Location> dests = piece.destinations();
-		for (Location d : dests)
-		{
-			if (piece instanceof Pawn && d.getCol() == piece.getLocation().getCol()) {
-				continue;
-			}
-			if (d.equals(loc)) {
-				return true;
-			}
+		if (piece.getLocation() == null) {
+			return false;
 		}
-		return false;
+		long b = 1L << Bitboard.square(loc);
+		long dests = destinationMask(piece);
+		if (piece instanceof Pawn) {
+			dests &= Bitboard.PAWN_ATTACKS[Bitboard.side(piece.getColor())][Bitboard.square(piece.getLocation())];
+		}
+		return (dests & b) != 0;
 	}
 	
 	/**
@@ -165,20 +563,12 @@ public class Board extends BoundedGrid<Piece>
 	public HashSet<Location> allAttackedSquares(Color color)
 	{
 		HashSet<Location> attacked = new HashSet<>();
-		
-		for (int pieceEnum=1;pieceEnum<=6;pieceEnum++)
+		long set = attackedSquares(color);
+		while (set != 0)
 		{
-			for (Piece p: pieces[color.equals(Color.WHITE) ? 0 : 1][pieceEnum])
-			{
-				ArrayList<Location> dests = p.destinations();
-				for (Location d : dests)
-				{
-					if (p instanceof Pawn && d.getCol() == p.getLocation().getCol()) {
-						continue;
-					}
-					attacked.add(d);
-				}
-			}
+			int sq = Long.numberOfTrailingZeros(set);
+			set &= set - 1;
+			attacked.add(Bitboard.location(sq));
 		}
 		return attacked;
 	}
@@ -246,36 +636,65 @@ public class Board extends BoundedGrid<Piece>
 	}
 	
 	/**
-	 * Helper to check validity and add castle moves to list of possible moves
-	 * @param possibleMoves The list of possible moves
-	 * @param king The king involved
-	 */
-	private void addCastleMoves(ArrayList<Move> possibleMoves, King king) {
-		if (!king.inCheck() && !king.getMoved()) {
-			ArrayList<Location> shortSide = new ArrayList<>();
-			ArrayList<Location> longSide = new ArrayList<>();
-			Location kingLocation = king.getLocation();
-			king.sweep(shortSide, Location.EAST);
-			king.sweep(longSide, Location.WEST);
-			Location shortEmpty = new Location(kingLocation.getRow(),7-1);
-			Location longEmpty = new Location(kingLocation.getRow(),0+1);
-			Piece shortRook = get(new Location(kingLocation.getRow(),7));
-			Piece longRook = get(new Location(kingLocation.getRow(),0));
-			boolean shortSafe = !isAttacked(new Location(kingLocation.getRow(),kingLocation.getCol()+1),oppositeColor(king.getColor()));
-			boolean longSafe = !isAttacked(new Location(kingLocation.getRow(),kingLocation.getCol()-1),oppositeColor(king.getColor()));
-			if (shortRook != null && shortRook.getColor().equals(king.getColor()) && shortRook instanceof Rook && !shortRook.getMoved() && shortSide.contains(shortEmpty) && get(shortEmpty) == null && shortSafe) {
-				CastleMove castle = new CastleMove(king, new Location(kingLocation.getRow(),kingLocation.getCol()+2),(Rook)shortRook,1);
-				if (escapesCheck(castle)) {
-					possibleMoves.add(castle);
-				}
+	 * Helper to check validity and add castle moves to a move buffer
+	 * @precondition The king is not in check
+	 * @param moves The move buffer
+	 * @param count The number of moves already in the buffer
+	 * @param side The side to move
+	 * @param kingSquare The square of the king
+	 * @return The new number of moves in the buffer
+	 */
+	private int addCastleMoves(int[] moves, int count, int side, int kingSquare) {
+		Piece king = get(Bitboard.location(kingSquare));
+		if (king.getMoved()) {
+			return count;
+		}
+		int row = kingSquare / 8;
+		for (int type=1;type<=2;type++)
+		{
+			int step = type == 1 ? 1 : -1;
+			int rookSquare = row*8 + (type == 1 ? 7 : 0);
+			Piece rook = get(Bitboard.location(rookSquare));
+			if (rook == null || !rook.getColor().equals(king.getColor()) || !(rook instanceof Rook) || rook.getMoved()) {
+				continue;
 			}
-			if (longRook != null && longRook.getColor().equals(king.getColor()) && longRook instanceof Rook && !longRook.getMoved() && longSide.contains(longEmpty) && get(longEmpty) == null && longSafe) {
-				CastleMove castle = new CastleMove(king, new Location(kingLocation.getRow(),kingLocation.getCol()-2),(Rook)longRook,2);
-				if (escapesCheck(castle)) {
-					possibleMoves.add(castle);
-				}
+			//Squares between king and rook must be empty, and the square the king passes over not attacked
+			if ((Bitboard.BETWEEN[kingSquare][rookSquare] & occupied) != 0 || destinationAttackers(kingSquare + step, 1 - side) != 0) {
+				continue;
+			}
+			//King can't land in check (with the rook already moved beside it)
+			int dest = kingSquare + 2*step;
+			long occAfter = occupied ^ (1L << kingSquare) ^ (1L << dest) ^ (1L << rookSquare) ^ (1L << (kingSquare + step));
+			if (attackersTo(dest, 1 - side, occAfter) == 0) {
+				moves[count++] = PackedMove.encode(kingSquare, dest, King.ENUM, 0, PackedMove.CASTLE);
 			}
 		}
+		return count;
+	}
+	
+	/**
+	 * Returns the pieces of a side that are pinned to their king by an enemy slider
+	 * 
+	 * @param side The side of the king
+	 * @param kingSquare The square of the king
+	 * @return The set of pinned pieces
+	 */
+	public long pinnedPieces(int side, int kingSquare)
+	{
+		long[] enemy = bitboards[1 - side];
+		long snipers = (Bitboard.rookAttacks(kingSquare, 0L) & (enemy[Rook.ENUM] | enemy[Queen.ENUM]))
+				| (Bitboard.bishopAttacks(kingSquare, 0L) & (enemy[Bishop.ENUM] | enemy[Queen.ENUM]));
+		long pinned = 0L;
+		while (snipers != 0)
+		{
+			int sq = Long.numberOfTrailingZeros(snipers);
+			snipers &= snipers - 1;
+			long blockers = Bitboard.BETWEEN[kingSquare][sq] & occupied;
+			if (blockers != 0 && (blockers & (blockers - 1)) == 0) {
+				pinned |= blockers & bitboards[side][0];
+			}
+		}
+		return pinned;
 	}
 	
 	/**
@@ -287,6 +706,10 @@ public class Board extends BoundedGrid<Piece>
 	 */
 	public int getCastlingRights(Color color)
 	{
+		//King can be missing while the opposite color's moves are being tried
+		if (getPiecesOfType(King.ENUM, color).isEmpty()) {
+			return 0;
+		}
 		King king = getKing(color);
 		if (king.getMoved()) {
 			return 0;
@@ -315,45 +738,163 @@ public class Board extends BoundedGrid<Piece>
 	 */
 	public ArrayList<Move> allMoves(Color color)
 	{
-		ArrayList<Piece> pieceCopy = new ArrayList<>();
-		ArrayList<Move> possibleMoves = new ArrayList<>();
+		int[] moves = new int[MAX_MOVES];
+		int count = generateMoves(color, moves);
+		ArrayList<Move> possibleMoves = new ArrayList<>(count);
+		for (int i=0;i<count;i++)
+		{
+			possibleMoves.add(toMove(moves[i]));
+		}
+		return possibleMoves;
+	}
+	
+	/**
+	 * Counts the valid moves for pieces of a certain color
+	 * 
+	 * @param color The piece color to detect
+	 * @return The number of possible moves
+	 */
+	public int countMoves(Color color)
+	{
+		return generateMoves(color, scratchMoves);
+	}
+	
+	/**
+	 * Writes all valid moves for pieces of a certain color into a buffer as packed moves
+	 * 
+	 * Legality is decided from the king's square once per position: the pieces giving check
+	 * limit where other pieces may move, pinned pieces can only move along their pin, and the
+	 * king can't step onto an attacked square
+	 * 
+	 * @param color The piece color to detect
+	 * @param moves The buffer to write into (at least MAX_MOVES long)
+	 * @return The number of moves written
+	 */
+	public int generateMoves(Color color, int[] moves)
+	{
+		int side = Bitboard.side(color);
+		int kingSquare = Long.numberOfTrailingZeros(bitboards[side][King.ENUM]);
+		long checkers = attackersTo(kingSquare, 1 - side, occupied);
+		
+		int count = addKingMoves(moves, 0, side, kingSquare);
+		
+		if (checkers != 0) {
+			count = addEvasions(moves, count, side, kingSquare, checkers);
+		}
+		else {
+			count = addPieceMoves(moves, count, side, kingSquare, ~0L);
+			
+			//Castling
+			count = addCastleMoves(moves, count, side, kingSquare);
+		}
 		
-		for (int pieceEnum=1;pieceEnum<=6;pieceEnum++)
+		return count;
+	}
+	
+	/**
+	 * Adds the king's moves to squares it wouldn't be attacked on
+	 * @param moves The move buffer
+	 * @param count The number of moves already in the buffer
+	 * @param side The side to move
+	 * @param kingSquare The square of the king
+	 * @return The new number of moves in the buffer
+	 */
+	private int addKingMoves(int[] moves, int count, int side, int kingSquare)
+	{
+		long dests = Bitboard.KING_ATTACKS[kingSquare] & ~bitboards[side][0];
+		//Remove the king so squares behind it along a checking line count as attacked
+		long occWithoutKing = occupied ^ (1L << kingSquare);
+		while (dests != 0)
 		{
-			for (Piece p: pieces[color.equals(Color.WHITE) ? 0 : 1][pieceEnum])
-			{
-				pieceCopy.add(p);
+			int sq = Long.numberOfTrailingZeros(dests);
+			dests &= dests - 1;
+			if (attackersTo(sq, 1 - side, occWithoutKing) == 0) {
+				moves[count++] = PackedMove.encode(kingSquare, sq, King.ENUM, pieceEnumAt(sq), 0);
 			}
 		}
-		
-		//Moving
-		for (Piece p: pieceCopy)
+		return count;
+	}
+	
+	/**
+	 * Adds the moves that get out of check (the king's own moves are added separately).
+	 * A double check can only be escaped by moving the king, a single check can also be
+	 * escaped by capturing the checker or blocking its line
+	 * 
+	 * @param moves The move buffer
+	 * @param count The number of moves already in the buffer
+	 * @param side The side in check
+	 * @param kingSquare The square of the king
+	 * @param checkers The pieces giving check
+	 * @return The new number of moves in the buffer
+	 */
+	private int addEvasions(int[] moves, int count, int side, int kingSquare, long checkers)
+	{
+		if ((checkers & (checkers - 1)) != 0) {
+			return count;
+		}
+		int checkerSquare = Long.numberOfTrailingZeros(checkers);
+		return addPieceMoves(moves, count, side, kingSquare, checkers | Bitboard.BETWEEN[kingSquare][checkerSquare]);
+	}
+	
+	/**
+	 * Adds the moves of every piece other than the king that land inside a target set
+	 * 
+	 * @param moves The move buffer
+	 * @param count The number of moves already in the buffer
+	 * @param side The side to move
+	 * @param kingSquare The square of the king
+	 * @param target The squares the pieces may move to
+	 * @return The new number of moves in the buffer
+	 */
+	private int addPieceMoves(int[] moves, int count, int side, int kingSquare, long target)
+	{
+		long pinned = pinnedPieces(side, kingSquare);
+		long enemy = bitboards[1 - side][0];
+		for (int pieceEnum=1;pieceEnum<=5;pieceEnum++)
 		{
-			ArrayList<Location> dests = p.destinations();
-			for (Location d : dests)
+			long set = bitboards[side][pieceEnum];
+			while (set != 0)
 			{
-				//Check for promotion
-				if (p instanceof Pawn) {
-					int frontRank = p.getColor().equals(Game.NEAR_COLOR) ? 0 : 7;
-					if (d.getRow() == frontRank) {
-						PromotionMove promotion = new PromotionMove(p, d);
-						if (escapesCheck(promotion)) {
-							possibleMoves.add(promotion);
-						}
-						continue;
-					}
+				int sq = Long.numberOfTrailingZeros(set);
+				set &= set - 1;
+				long dests = destinationMask(pieceEnum, side, sq) & target;
+				if ((pinned & (1L << sq)) != 0) {
+					dests &= Bitboard.LINE[kingSquare][sq];
 				}
-				Move move = new Move(p, d);
-				if (escapesCheck(move)) {
-					possibleMoves.add(move);
+				while (dests != 0)
+				{
+					int d = Long.numberOfTrailingZeros(dests);
+					dests &= dests - 1;
+					int victimEnum = (enemy & (1L << d)) != 0 ? pieceEnumAt(d) : 0;
+					//Check for promotion
+					int flags = pieceEnum == Pawn.ENUM && d / 8 == Bitboard.PROMOTION_ROW[side] ? PackedMove.PROMOTION : 0;
+					moves[count++] = PackedMove.encode(sq, d, pieceEnum, victimEnum, flags);
 				}
 			}
 		}
-		
-		//Castling
-		addCastleMoves(possibleMoves, getKing(color));
-		
-		return possibleMoves;
+		return count;
+	}
+	
+	/**
+	 * Builds the Move object of a packed move in the current position
+	 * 
+	 * @param move The packed move
+	 * @return The Move, CastleMove or PromotionMove
+	 */
+	public Move toMove(int move)
+	{
+		int from = PackedMove.from(move);
+		Piece piece = get(Bitboard.location(from));
+		Location dest = Bitboard.location(PackedMove.to(move));
+		if (PackedMove.isCastle(move)) {
+			int type = PackedMove.castleType(move);
+			Piece rook = get(Bitboard.location((from / 8)*8 + (type == 1 ? 7 : 0)));
+			return new CastleMove((King)piece, dest, (Rook)rook, type);
+		}
+		if (PackedMove.isPromotion(move)) {
+			return new PromotionMove(piece, dest);
+		}
+		return new Move(piece, dest);
 	}
 	
 	/**
@@ -396,7 +937,107 @@ public class Board extends BoundedGrid<Piece>
 			((PromotionMove) move).getUpgradePiece().putSelfInGrid(move.getPiece().getBoard(), move.getDestination());
 			((PromotionMove) move).getUpgradePiece().setMoved(true);
 		}
+		
+		toggleSideToMove();
+		refreshCastlingRights();
 	}
 	
-
+	/**
+	 * Executes a packed move, reflecting it to the board
+	 * 
+	 * @param move The packed move to execute
+	 */
+	public void executeMove(int move)
+	{
+		int from = PackedMove.from(move);
+		Location dest = Bitboard.location(PackedMove.to(move));
+		Piece piece = get(Bitboard.location(from));
+		capturedHistory[historyPly] = get(dest);
+		movedHistory[historyPly] = piece.getMoved();
+		
+		//General Movement
+		piece.moveTo(dest);
+		piece.setMoved(true);
+		//Castle Movement
+		if (PackedMove.isCastle(move)) {
+			int step = PackedMove.castleType(move) == 1 ? 1 : -1;
+			Piece rook = get(Bitboard.location((from / 8)*8 + (step == 1 ? 7 : 0)));
+			rook.moveTo(Bitboard.location(from + step));
+			rook.setMoved(true);
+		}
+		//Promotion
+		if (PackedMove.isPromotion(move)) {
+			Piece queen = promotionQueen(piece.getColor());
+			promotedHistory[historyPly] = piece;
+			queen.putSelfInGrid(this, dest);
+			queen.setMoved(true);
+		}
+		
+		historyPly++;
+		toggleSideToMove();
+		refreshCastlingRights();
+	}
+	
+	/**
+	 * Takes back the last executed packed move
+	 * @precondition move is the last packed move executed on this board
+	 * @param move The packed move to undo
+	 */
+	public void undoMove(int move)
+	{
+		historyPly--;
+		int from = PackedMove.from(move);
+		Location source = Bitboard.location(from);
+		Location dest = Bitboard.location(PackedMove.to(move));
+		
+		//Promotion
+		Piece piece;
+		if (PackedMove.isPromotion(move)) {
+			get(dest).removeSelfFromGrid();
+			piece = promotedHistory[historyPly];
+			piece.putSelfInGrid(this, source);
+			promotedHistory[historyPly] = null;
+		}
+		else {
+			piece = get(dest);
+			piece.moveTo(source);
+		}
+		
+		Piece victim = capturedHistory[historyPly];
+		if (victim != null) {
+			victim.putSelfInGrid(this, dest);
+			capturedHistory[historyPly] = null;
+		}
+		piece.setMoved(movedHistory[historyPly]);
+		
+		//Castle movement
+		if (PackedMove.isCastle(move)) {
+			int step = PackedMove.castleType(move) == 1 ? 1 : -1;
+			Piece rook = get(Bitboard.location(from + step));
+			rook.moveTo(Bitboard.location((from / 8)*8 + (step == 1 ? 7 : 0)));
+			rook.setMoved(movedHistory[historyPly]);
+		}
+		
+		toggleSideToMove();
+		refreshCastlingRights();
+	}
+	
+	/**
+	 * Returns a queen to promote into at the current ply, reusing the one from an earlier
+	 * promotion at the same ply if it's been taken off the board
+	 * 
+	 * @param color The color of the queen
+	 * @return The queen
+	 */
+	private Queen promotionQueen(Color color)
+	{
+		int side = Bitboard.side(color);
+		Queen queen = promotionQueens[side][historyPly];
+		if (queen == null || queen.getBoard() != null) {
+			String fileName = side == Bitboard.WHITE ? "white_queen.gif" : "black_queen.gif";
+			queen = new Queen(color, fileName);
+			promotionQueens[side][historyPly] = queen;
+		}
+		return queen;
+	}
 }
\ No newline at end of file
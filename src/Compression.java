@@ -1,165 +1,109 @@
 
 /**
- * A class to handle compressing chess states into Strings and managing the data files, allowing for
+ * A class to handle compressing chess states and managing the data files, allowing for
  * access and retrieval
  * 
  * @author Victor Gong
  * @version 4/11/2023
  */
-import java.awt.Color;
-import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
-import java.io.FileReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
-import java.math.BigInteger;
 import java.text.DecimalFormat;
-import java.util.HashMap;
-import java.util.StringTokenizer;
 
 public final class Compression
 {
-	private static HashMap<String, CompressionInfo> allStates = new HashMap<>();
-	private static final int TABLE_SIZE_CUTOFF = 6000000; // Maximum states that table/file can hold
-	private static CompressionWriter compressionWriter = new CompressionWriter();
+	private static final int TABLE_SIZE_MB = 128; // Memory used by the state table (fixed, never grows)
+	private static TranspositionTable allStates = new TranspositionTable(TABLE_SIZE_MB); //Shared by all search threads
+	private static final int STORE_SIZE_MB = 256; // Size of a new learned state store file
+	private static MappedStateStore learnedStates; //States saved by previous games, probed in place
+	private static StateLog stateLog; //Learned states not yet compacted into the store
+	private static CompressionWriter compressionWriter;
+	private static TableSnapshotter tableSnapshotter;
+	private static final long SNAPSHOT_INTERVAL = 5 * 60 * 1000; //Time (ms) between snapshots of the state table
+	private static final int LEARN_MIN_DEPTH = 3; //Shallowest search of a state worth learning
 	
-	private static boolean tableLocked = false; //boolean that locks the state table on true
+	private static volatile boolean tableLocked = false; //boolean that locks the state table on true
 	
 	private static final boolean SAVETOFILE = false;
 	
 	/**
-	 * Encodes a base 10 number, represented as a String, to a base 90 number
-	 * @param number The base 10 number
-	 * @return The base 90 number
-	 */
-	private static String encodeToBase90(BigInteger number) {
-		String DIGITS = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz!@#$%^&*()[];',./{}|:<>?_+`~";
-		BigInteger BASE = BigInteger.valueOf(90);
-	    if (number.compareTo(BigInteger.ZERO) == -1) { // number < 0
-	      throw new IllegalArgumentException("number must not be negative");
-	    }
-	    StringBuilder result = new StringBuilder();
-	    while (number.compareTo(BigInteger.ZERO) == 1) { // number > 0
-	      BigInteger[] divmod = number.divideAndRemainder(BASE);
-	      number = divmod[0];
-	      int digit = divmod[1].intValue();
-	      result.insert(0, DIGITS.charAt(digit));
-	    }
-	    return (result.length() == 0) ? DIGITS.substring(0, 1) : result.toString();
-	}
-	/**
-	 * Compresses the current board state into a base90 number stored in a String
+	 * Clears the data file, the state log and the learned state store
 	 * 
-	 * @param board The current board
-	 * @param color The color to play
-	 * @return The compressed string
+	 * @throws IOException
 	 */
-	public static String compressState(Board board, int color)
+	public static void clearFile() throws IOException
 	{
-		// 1 - Pawn, 2 - Knight, 3 - Bishop, 4 - Rook, 5 - Queen, 6 - King
-		String[][] enumTable = {
-				{"1","2","3","4","5","6"},
-				{"7","8","9","A","B","C"}
-		};
-		String ret = "";
-		// 0 - Empty
-		
-		// Shift 0 for white, Shift 6 for black
-		for (int i = 0; i < board.getNumRows(); i++)
+		CompressionWriter.clearFile();
+		if (learnedStates != null)
 		{
-			for (int j = 0; j < board.getNumCols(); j++)
-			{
-				Piece p = board.get(new Location(i, j));
-				String pieceEnum = "0";
-				if (p == null) {
-					pieceEnum = "0";
-				}
-				else {
-					int colorEnum = p.getColor().equals(Color.WHITE) ? 0 : 1;
-					pieceEnum = enumTable[colorEnum][p.getEnum()-1];
-				}
-				
-				ret += pieceEnum;
-			}
+			learnedStates.clear();
 		}
-		
-		//Always compress with white near-side
-		if (Game.NEAR_COLOR.equals(Color.BLACK)) {
-			String retRev = "";
-			for (int i=ret.length()-1;i>=0;i--) {
-				retRev += ret.substring(i,i+1);
-			}
-			ret = retRev;
+		else
+		{
+			new File(CompressionWriter.STORE_FILE).delete();
 		}
-		
-		/**
-		 * Add tag for castling rights
-		 * 0 = none, 1 = short, 2 = long, 3 = both
-		 */
-		ret = (board.getCastlingRights(color == 1 ? Color.WHITE : Color.BLACK)) + ret;
-		
-		/*
-		 * Add tag for color to play
-		 * 1 = White, 2 = Black
-		 */
-		ret = (color == 1 ? 1 : 2) + ret;
-		
-		BigInteger base13 = new BigInteger(ret, 13);
-		ret = encodeToBase90(base13); //Encoded board
-
-		return ret;
-	}
-	
-	/**
-	 * Clears the data file
-	 * 
-	 * @throws IOException
-	 */
-	public static void clearFile() throws IOException
-	{
-		compressionWriter.clearFile();
+		new File(CompressionWriter.SNAPSHOT_FILE).delete();
 	}
 	
 	/**
-	 * Loads the state table from the file
+	 * Opens the learned state store (the first time, importing the old text data file if there is one)
+	 * and the state log, compacting states logged by earlier runs into the store. If saving to file,
+	 * restores the state table from its last snapshot and starts taking snapshots
 	 */
 	public static void setup() throws IOException
 	{
-		//Read in the state table from data file
-		BufferedReader br = new BufferedReader(new FileReader(CompressionWriter.DATA_FILE));
-		StringTokenizer s;
-		String nextLine;
-		while ((nextLine = br.readLine()) != null)
+		boolean newStore = !new File(CompressionWriter.STORE_FILE).exists();
+		learnedStates = new MappedStateStore(CompressionWriter.STORE_FILE, STORE_SIZE_MB);
+		if (newStore && new File(CompressionWriter.DATA_FILE).exists())
 		{
-			s = new StringTokenizer(nextLine);
-			if (allStates.size() >= TABLE_SIZE_CUTOFF)
-			{
-				break;
-			}
-			String key = s.nextToken();
-			int nodeType = Integer.parseInt(s.nextToken());
-			int depth = Integer.parseInt(s.nextToken());
-			int value = Integer.parseInt(s.nextToken());
-
-			allStates.put(key, new CompressionInfo(nodeType, depth, value));
+			StateFileLoader.load(CompressionWriter.DATA_FILE, learnedStates, Runtime.getRuntime().availableProcessors());
 		}
-		br.close();
+		
+		stateLog = new StateLog(CompressionWriter.LOG_DIRECTORY, learnedStates);
 		
 		//Start the CompressionWriter thread
+		compressionWriter = new CompressionWriter(stateLog);
 		compressionWriter.start();
+		
+		if (!SAVETOFILE)
+		{
+			return;
+		}
+		if (new File(CompressionWriter.SNAPSHOT_FILE).exists())
+		{
+			int restored = TableSnapshotter.read(allStates, CompressionWriter.SNAPSHOT_FILE);
+			System.out.println("Restored " + restored + " states from the table snapshot");
+		}
+		tableSnapshotter = new TableSnapshotter(allStates, CompressionWriter.SNAPSHOT_FILE, SNAPSHOT_INTERVAL);
+		tableSnapshotter.start();
 	}
 	
 	/**
-	 * Saves the current state table to the data file (Warning: Replaces all existing data)
+	 * Takes a last snapshot of the state table (if saving to file), and closes the state log and the
+	 * learned state store. States are logged as they're learned; segments not yet compacted are
+	 * compacted on the next setup
 	 * @throws IOException 
 	 */
 	public static void saveTable() throws IOException
 	{
-		if (!SAVETOFILE)
+		if (tableSnapshotter != null)
 		{
-			return;
+			tableSnapshotter.close();
+			TableSnapshotter.write(allStates, CompressionWriter.SNAPSHOT_FILE);
+			tableSnapshotter = null;
+		}
+		if (stateLog != null)
+		{
+			stateLog.close();
+			System.out.println("State log: " + stateLog.getStatistics());
+			stateLog = null;
+		}
+		if (learnedStates != null)
+		{
+			learnedStates.force();
 		}
-		CompressionWriter.saveToFile(allStates);
 	}
 	
 	/**
@@ -172,59 +116,64 @@ public final class Compression
 		if (Game.moveLog.isEmpty()) {
 			return;
 		}
-		compressionWriter.recordMoveLog(Game.moveLog);
+		CompressionWriter.recordMoveLog(Game.moveLog);
 	}
 	
 	/**
-	 * Adds a state with a processed depth to the state table
+	 * Adds a state with a processed depth to the state table. The table has a fixed size, so this
+	 * replaces an older or shallower entry when the state's bucket is full. States searched deep
+	 * enough are also queued for the state log (if saving to file)
 	 * 
-	 * @param key            The current state, compressed as a string
+	 * @param key            The Zobrist key of the current state
 	 * @param nodeType		 The type of node
 	 * @param depth			 The depth of the search
 	 * @param value          The evaluation value of the state
+	 * @param bestMove       The best packed move found (PackedMove.NONE if none)
 	 */
-	public static void addToTable(String key, int nodeType, int depth, int value) throws IOException
+	public static void addToTable(long key, int nodeType, int depth, int value, int bestMove) throws IOException
 	{
-		if (allStates.size() >= TABLE_SIZE_CUTOFF || tableLocked)
+		if (tableLocked)
 		{
 			return;
 		}
-		CompressionInfo prevInfo = allStates.get(key);
+		allStates.store(key, nodeType, depth, value, bestMove);
 		
-		//Don't replace entry in TT if a shallower search (less accurate) than current TT entry (if exists)
-		if (prevInfo != null && prevInfo.depth > depth) {
-			return;
+		if (SAVETOFILE && depth >= LEARN_MIN_DEPTH && compressionWriter != null)
+		{
+			compressionWriter.addToQueue(key, new CompressionInfo(nodeType, depth, value));
 		}
-		allStates.put(key, new CompressionInfo(nodeType, depth, value));
-		
-		//compressionWriter.addToQueue(key, value);
-		
 	}
 
 	/**
-	 * Checks if the state table contains a specific state
+	 * Retrieves a state from the state table
 	 * 
-	 * @param key The current state, compressed as a string
-	 * @return True if contains, false otherwise
+	 * @param key The Zobrist key of the current state
+	 * @return The packed entry (read with the TranspositionTable accessors), or TranspositionTable.MISS
 	 */
-	public static boolean tableHasState(String key)
+	public static long retrieveFromTable(long key)
 	{
-		String fullKey = key;
-		return allStates.containsKey(fullKey);
+		long entry = allStates.probe(key);
+		if (entry == TranspositionTable.MISS && learnedStates != null)
+		{
+			entry = learnedStates.probe(key);
+		}
+		return entry;
 	}
-
+	
 	/**
-	 * Retrieves a CompressionInfo object from the state table given the appropriate parameters
-	 * 
-	 * @precondition Key exists in the state table
-	 * 
-	 * @param key The current state, compressed as a string
-	 * @return The evaluation value
+	 * Marks the start of a new search, so the table replaces entries of earlier searches first
+	 */
+	public static void newSearch()
+	{
+		allStates.newGeneration();
+	}
+	
+	/**
+	 * Removes all states from the state table (does not touch the data file)
 	 */
-	public static CompressionInfo retrieveFromTable(String key)
+	public static void clearTable()
 	{
-		String fullKey = key;
-		return allStates.get(fullKey);
+		allStates.clear();
 	}
 	
 	public static void lockTable()
@@ -232,9 +181,16 @@ public final class Compression
 		tableLocked = true;
 	}
 	
-	public static boolean writerIsRunning()
+	/**
+	 * Writes out the states still queued for the state log and stops the writer thread
+	 */
+	public static void closeWriter()
 	{
-		return compressionWriter.isWriting() && compressionWriter.isAlive();
+		if (compressionWriter != null && compressionWriter.isAlive())
+		{
+			compressionWriter.close();
+			System.out.println("State log writer: " + compressionWriter.getStatistics());
+		}
 	}
 	
 	public static void printDataDetails()
@@ -244,7 +200,14 @@ public final class Compression
 		System.out.println("COMPRESSION BASE: 36");
 		System.out.println("CURRENT MEMORY USAGE: " + df.format(Runtime.getRuntime().totalMemory()/1024.0/1024.0) + " MB");
 		System.out.println("MAX HEAP MEMORY: " + df.format(Runtime.getRuntime().maxMemory()/1024.0/1024.0) + " MB");
-		System.out.println("TOTAL STATES IN TABLE: " + df.format(allStates.size()));
-		System.out.println("% TABLE SPACE USED: " + df.format(allStates.size()/(double)TABLE_SIZE_CUTOFF*100) + "%");
+		int entries = allStates.countEntries();
+		System.out.println("TABLE SIZE: " + TABLE_SIZE_MB + " MB (" + df.format(allStates.capacity()) + " entries)");
+		System.out.println("TOTAL STATES IN TABLE: " + df.format(entries));
+		System.out.println("% TABLE SPACE USED: " + df.format(entries/(double)allStates.capacity()*100) + "%");
+		if (learnedStates != null)
+		{
+			int learned = learnedStates.countEntries();
+			System.out.println("LEARNED STATES IN STORE: " + df.format(learned) + " / " + df.format(learnedStates.capacity()));
+		}
 	}
 }
@@ -16,21 +16,10 @@ public class CompressionShutdownHook extends Thread
 			//Lock the state table
 			Compression.lockTable();
 			
-			/*
-			//Wait until writer thread finishes
-			while (Compression.writerIsRunning()) {
-				try
-				{
-					Thread.sleep(1000);
-				}
-				catch (InterruptedException e)
-				{
-					e.printStackTrace();
-				}
-			}
-			*/
+			//Write out the states still queued for the data file
+			Compression.closeWriter();
 			
-			//Save the state table to data file
+			//Close the state log and the learned state store
 			Compression.saveTable();
 			
 			//Record moves
@@ -1,54 +1,72 @@
 import java.io.BufferedWriter;
-import java.io.ByteArrayOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.PrintWriter;
+import java.nio.ByteBuffer;
 import java.time.LocalDate;
 import java.time.LocalTime;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.Queue;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
- * A class that utilizes multithreading to concurrently write information to the data file
+ * A class that utilizes multithreading to concurrently write learned states to the state log. States are
+ * queued by the search and appended by this thread in batches of CRC-checked records
  * @author Victor Gong
  * @version 4/11/2023
  */
 public class CompressionWriter extends Thread
 {
 	
-	public static final String DATA_FILE = "chess.data";
+	public static final String DATA_FILE = "chess.data"; //Old text data file (imported once)
+	public static final String STORE_FILE = "chess.tt"; //Memory-mapped learned state store
+	public static final String LOG_DIRECTORY = "chess.log"; //Segments of the learned state log
+	public static final String SNAPSHOT_FILE = "chess.snapshot"; //Last snapshot of the state table
 	public static final String MOVE_LOG_FILE = "move.log";
-	private Queue<String> writeQueue;
-	private boolean isWriting;
 	
-	public CompressionWriter() {
-		writeQueue = new LinkedList<>();
-		isWriting = false;
+	private static final int QUEUE_CAPACITY = 1 << 16; //States waiting before producers block
+	private static final long QUEUE_WAIT = 100; //Time (ms) a blocked producer waits before checking the writer still runs
+	private static final PendingState SHUTDOWN = new PendingState(0L, null);
+	
+	private final StateLog log;
+	private final BlockingQueue<PendingState> writeQueue;
+	private final ByteBuffer buffer; //Records of the batch being committed
+	private final int commitSize; //Most states written (and synced) in one group commit
+	private final long commitInterval; //Longest time (ms) a queued state waits to be committed
+	private volatile boolean isWriting;
+	private volatile boolean closing;
+	private long recordsWritten = 0;
+	private long commits = 0;
+	
+	public CompressionWriter(StateLog log) {
+		this(log, 4096, 250);
 	}
 	
 	/**
-	 * Saves a state table to the data file (Warning: Replaces all previous information)
-	 * 
-	 * @throws IOException
+	 * @param log The log the states are appended to
+	 * @param commitSize The most states written in one group commit
+	 * @param commitInterval The longest time (ms) a queued state waits to be committed
 	 */
-	public static void saveToFile(HashMap<String, CompressionInfo> allStates) throws IOException
-	{
-		PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(DATA_FILE)));
-		for (String s : allStates.keySet())
-		{
-			out.write(s + " " + allStates.get(s) + "\n");
-		}
-		out.flush();
-		out.close();
+	public CompressionWriter(StateLog log, int commitSize, long commitInterval) {
+		super("CompressionWriter");
+		setDaemon(true); //Flushed by close() from the shutdown hook, so it mustn't keep the program alive
+		this.log = log;
+		this.buffer = ByteBuffer.allocate(commitSize * StateLog.RECORD_BYTES);
+		this.writeQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+		this.commitSize = commitSize;
+		this.commitInterval = commitInterval;
+		this.isWriting = false;
+		this.closing = false;
 	}
 	
 	/**
 	 * Records the move log of the current game in the move.log file (appends)
 	 * @throws IOException 
 	 */
-	public void recordMoveLog(ArrayList<Move> moveLog) throws IOException
+	public static void recordMoveLog(ArrayList<Move> moveLog) throws IOException
 	{
 		PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(MOVE_LOG_FILE, true)));
 		out.write("\n\n\n");
@@ -70,32 +88,50 @@ public class CompressionWriter extends Thread
 	}
 	
 	/**
-	 * Clears the data file
+	 * Clears the data file and the segments of the state log
 	 * 
 	 * @throws IOException
 	 */
-	public void clearFile() throws IOException
+	public static void clearFile() throws IOException
 	{
 		PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(DATA_FILE)));
 		out.write("");
 		out.flush();
 		out.close();
+		StateLog.deleteSegments(LOG_DIRECTORY);
 	}
 	
 	/**
-	 * Appends a state table to the data file
+	 * Queues a state to be appended to the state log. Blocks while the queue is full, so a search that
+	 * produces states faster than the disk can take them is slowed down instead of running out of memory.
+	 * The state is dropped if the writer is closed or stops (e.g. on a write error) while it waits
 	 * 
-	 * @throws IOException
+	 * @param key The Zobrist key of the state
+	 * @param info The stored info of the state
+	 * @throws IOException If interrupted while waiting for room in the queue
 	 */
-	public void addToQueue(String key, CompressionInfo info) throws IOException
+	public void addToQueue(long key, CompressionInfo info) throws IOException
 	{
-		String data = key + " " + info
-				+ "\n";
-		writeQueue.add(data);
+		PendingState state = new PendingState(key, info);
+		try
+		{
+			while (!closing)
+			{
+				if (writeQueue.offer(state, QUEUE_WAIT, TimeUnit.MILLISECONDS))
+				{
+					return;
+				}
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while queueing a state");
+		}
 	}
 	
 	/**
-	 * Returns if the writer is appending to the data file
+	 * Returns if the writer is appending to the state log
 	 * @return True if the writer is writing, false otherwise
 	 */
 	public boolean isWriting()
@@ -103,31 +139,110 @@ public class CompressionWriter extends Thread
 		return isWriting;
 	}
 	
+	/**
+	 * Stops accepting states, waits for the queued states to be written and synced to disk, and ends
+	 * the writer thread
+	 */
+	public void close()
+	{
+		closing = true;
+		writeQueue.offer(SHUTDOWN); //Wakes the writer if it's waiting (if the queue is full, it's busy anyway)
+		try
+		{
+			join();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Writes a batch of states to the log as one group commit
+	 */
+	private void commit(List<PendingState> batch) throws IOException
+	{
+		isWriting = true;
+		buffer.clear();
+		for (PendingState state : batch)
+		{
+			CompressionInfo info = state.info;
+			StateLog.putRecord(buffer, state.key, TranspositionTable.pack(info.nodeType, info.depth, info.score, PackedMove.NONE, 0));
+		}
+		buffer.flip();
+		log.append(buffer);
+		log.sync();
+		recordsWritten += buffer.limit() / StateLog.RECORD_BYTES;
+		commits++;
+		batch.clear();
+		isWriting = false;
+	}
+	
+	/**
+	 * Writes queued states in batches: a batch is committed once it holds COMMIT_SIZE states, or once
+	 * its first state has waited COMMIT_INTERVAL milliseconds
+	 */
 	public void run()
 	{
-		
-		
-		while (true) {
-			PrintWriter out = null;
-			try
-			{
-				out = new PrintWriter(new BufferedWriter(new FileWriter(DATA_FILE, true)));
-			}
-			catch (IOException e)
+		try
+		{
+			List<PendingState> batch = new ArrayList<>(commitSize);
+			long deadline = 0;
+			while (!closing || !writeQueue.isEmpty() || !batch.isEmpty())
 			{
-				e.printStackTrace();
-			}
-			while (!writeQueue.isEmpty()) {
-				isWriting = true;
-				String data = writeQueue.poll();
-				if (data != null) {
-					out.write(data);
-				}	
+				long wait = batch.isEmpty() ? commitInterval : Math.max(0, deadline - System.currentTimeMillis());
+				PendingState state = writeQueue.poll(wait, TimeUnit.MILLISECONDS);
+				if (state != null)
+				{
+					if (batch.isEmpty())
+					{
+						deadline = System.currentTimeMillis() + commitInterval;
+					}
+					batch.add(state);
+					writeQueue.drainTo(batch, commitSize - batch.size());
+					batch.remove(SHUTDOWN); //Only wakes the writer, wherever it was in the queue
+				}
+				if (!batch.isEmpty() && (batch.size() >= commitSize || closing || System.currentTimeMillis() >= deadline))
+				{
+					commit(batch);
+				}
 			}
-			out.flush();
-			out.close();
-			
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		finally
+		{
+			closing = true; //Producers waiting for room stop waiting
 			isWriting = false;
 		}
 	}
+	
+	/**
+	 * Returns the number of states written and the number of group commits used to write them
+	 */
+	public String getStatistics()
+	{
+		return recordsWritten + " states in " + commits + " commits";
+	}
+	
+	/**
+	 * A state waiting in the queue
+	 */
+	private static class PendingState
+	{
+		private final long key;
+		private final CompressionInfo info;
+		
+		public PendingState(long key, CompressionInfo info)
+		{
+			this.key = key;
+			this.info = info;
+		}
+	}
 }
@@ -0,0 +1,75 @@
+import java.util.Arrays;
+
+/**
+ * A small, lossy, direct-mapped cache of full evaluations, keyed by the Zobrist key of the position.
+ * Each entry is one long: the upper 48 bits of the key and the 16 bit score. A position overwrites
+ * whatever was in its slot. Not thread-safe: every search thread has its own cache.
+ */
+public class EvalCache
+{
+	public static final int MISS = Integer.MIN_VALUE;
+
+	private static final long SCORE_MASK = 0xFFFFL;
+
+	private final long[] entries;
+	private final int mask;
+	private long hits = 0;
+	private long misses = 0;
+
+	/**
+	 * @param size The number of entries, rounded down to a power of two
+	 */
+	public EvalCache(int size)
+	{
+		entries = new long[Integer.highestOneBit(Math.max(1, size))];
+		mask = entries.length - 1;
+	}
+
+	/**
+	 * Looks up the evaluation of a position
+	 * @param key The Zobrist key of the position
+	 * @return The score, or MISS
+	 */
+	public int probe(long key)
+	{
+		long entry = entries[(int) key & mask];
+		if (entry != 0 && ((entry ^ key) & ~SCORE_MASK) == 0)
+		{
+			hits++;
+			return (short) entry;
+		}
+		misses++;
+		return MISS;
+	}
+
+	/**
+	 * Empties the cache (the hit and miss counts are kept)
+	 */
+	public void clear()
+	{
+		Arrays.fill(entries, 0L);
+	}
+
+	/**
+	 * Caches the evaluation of a position (scores that don't fit in 16 bits aren't cached)
+	 * @param key The Zobrist key of the position
+	 * @param score The score
+	 */
+	public void store(long key, int score)
+	{
+		if (score == (short) score)
+		{
+			entries[(int) key & mask] = (key & ~SCORE_MASK) | (score & SCORE_MASK);
+		}
+	}
+
+	public long getHits()
+	{
+		return hits;
+	}
+
+	public long getMisses()
+	{
+		return misses;
+	}
+}
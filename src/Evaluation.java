@@ -1,5 +1,3 @@
-import java.awt.Color;
-import java.util.*;
 
 /**
  * A class containing all the methods necessary to evaluate a chess board state
@@ -11,353 +9,631 @@ import java.util.*;
 public class Evaluation
 {
 	
-	private static final int LAZY_CUTOFF = 250;
+	//Material (PeSTO), Pawn through King
+	private static final int[] MG_VALUE = { 82, 337, 365, 477, 1025,  0};
+	private static final int[] EG_VALUE = { 94, 281, 297, 512,  936,  0};
+	
+	//Material without pawns (for telling the endgame), Pawn through King
+	private static final int[] NON_PAWN_VALUE = {0, 300, 300, 500, 900, 0};
+	
+	//Phase weight of each piece, Pawn through King; all pieces on the board add up to TOTAL_PHASE
+	private static final int[] PHASE_WEIGHT = {0, 1, 1, 2, 4, 0};
+	private static final int TOTAL_PHASE = 24;
+	
+	//Piece-square tables (PeSTO), laid out as the near color sees the board (index 0 is the far corner)
+	private static final int[] MG_PAWN_TABLE = {
+		      0,   0,   0,   0,   0,   0,  0,   0,
+		     98, 134,  61,  95,  68, 126, 34, -11,
+		     -6,   7,  26,  31,  65,  56, 25, -20,
+		    -14,  13,   6,  21,  23,  12, 17, -23,
+		    -27,  -2,  -5,  12,  17,   6, 10, -25,
+		    -26,  -4,  -4, -10,   3,   3, 33, -12,
+		    -35,  -1, -20, -23, -15,  24, 38, -22,
+		      0,   0,   0,   0,   0,   0,  0,   0,
+	};
 
-	/**
-	 * Sums up the material for a certain color (doesn't use object piece value)
-	 * 
-	 * @param board The board
-	 * @param color The color
-	 * @return The total material
-	 */
-	private static int calculateMaterial(Board board, Color color, boolean isEndgame)
+	private static final int[] EG_PAWN_TABLE = {
+	      0,   0,   0,   0,   0,   0,   0,   0,
+	    178, 173, 158, 134, 147, 132, 165, 187,
+	     94, 100,  85,  67,  56,  53,  82,  84,
+	     32,  24,  13,   5,  -2,   4,  17,  17,
+	     13,   9,  -3,  -7,  -7,  -8,   3,  -1,
+	      4,   7,  -6,   1,   0,  -5,  -1,  -8,
+	     13,   8,   8,  10,  13,   0,   2,  -7,
+	      0,   0,   0,   0,   0,   0,   0,   0,
+	};
+
+	private static final int[] MG_KNIGHT_TABLE = {
+	    -167, -89, -34, -49,  61, -97, -15, -107,
+	     -73, -41,  72,  36,  23,  62,   7,  -17,
+	     -47,  60,  37,  65,  84, 129,  73,   44,
+	      -9,  17,  19,  53,  37,  69,  18,   22,
+	     -13,   4,  16,  13,  28,  19,  21,   -8,
+	     -23,  -9,  12,  10,  19,  17,  25,  -16,
+	     -29, -53, -12,  -3,  -1,  18, -14,  -19,
+	    -105, -21, -58, -33, -17, -28, -19,  -23,
+	};
+
+	private static final int[] EG_KNIGHT_TABLE = {
+	    -58, -38, -13, -28, -31, -27, -63, -99,
+	    -25,  -8, -25,  -2,  -9, -25, -24, -52,
+	    -24, -20,  10,   9,  -1,  -9, -19, -41,
+	    -17,   3,  22,  22,  22,  11,   8, -18,
+	    -18,  -6,  16,  25,  16,  17,   4, -18,
+	    -23,  -3,  -1,  15,  10,  -3, -20, -22,
+	    -42, -20, -10,  -5,  -2, -20, -23, -44,
+	    -29, -51, -23, -15, -22, -18, -50, -64,
+	};
+
+	private static final int[] MG_BISHOP_TABLE = {
+	    -29,   4, -82, -37, -25, -42,   7,  -8,
+	    -26,  16, -18, -13,  30,  59,  18, -47,
+	    -16,  37,  43,  40,  35,  50,  37,  -2,
+	     -4,   5,  19,  50,  37,  37,   7,  -2,
+	     -6,  13,  13,  26,  34,  12,  10,   4,
+	      0,  15,  15,  15,  14,  27,  18,  10,
+	      4,  15,  16,   0,   7,  21,  33,   1,
+	    -33,  -3, -14, -21, -13, -12, -39, -21,
+	};
+
+	private static final int[] EG_BISHOP_TABLE = {
+	    -14, -21, -11,  -8, -7,  -9, -17, -24,
+	     -8,  -4,   7, -12, -3, -13,  -4, -14,
+	      2,  -8,   0,  -1, -2,   6,   0,   4,
+	     -3,   9,  12,   9, 14,  10,   3,   2,
+	     -6,   3,  13,  19,  7,  10,  -3,  -9,
+	    -12,  -3,   8,  10, 13,   3,  -7, -15,
+	    -14, -18,  -7,  -1,  4,  -9, -15, -27,
+	    -23,  -9, -23,  -5, -9, -16,  -5, -17,
+	};
+
+	private static final int[] MG_ROOK_TABLE = {
+	     32,  42,  32,  51, 63,  9,  31,  43,
+	     27,  32,  58,  62, 80, 67,  26,  44,
+	     -5,  19,  26,  36, 17, 45,  61,  16,
+	    -24, -11,   7,  26, 24, 35,  -8, -20,
+	    -36, -26, -12,  -1,  9, -7,   6, -23,
+	    -45, -25, -16, -17,  3,  0,  -5, -33,
+	    -44, -16, -20,  -9, -1, 11,  -6, -71,
+	    -19, -13,   1,  17, 16,  7, -37, -26,
+	};
+
+	private static final int[] EG_ROOK_TABLE = {
+	    13, 10, 18, 15, 12,  12,   8,   5,
+	    11, 13, 13, 11, -3,   3,   8,   3,
+	     7,  7,  7,  5,  4,  -3,  -5,  -3,
+	     4,  3, 13,  1,  2,   1,  -1,   2,
+	     3,  5,  8,  4, -5,  -6,  -8, -11,
+	    -4,  0, -5, -1, -7, -12,  -8, -16,
+	    -6, -6,  0,  2, -9,  -9, -11,  -3,
+	    -9,  2,  3, -1, -5, -13,   4, -20,
+	};
+
+	private static final int[] MG_QUEEN_TABLE = {
+	    -28,   0,  29,  12,  59,  44,  43,  45,
+	    -24, -39,  -5,   1, -16,  57,  28,  54,
+	    -13, -17,   7,   8,  29,  56,  47,  57,
+	    -27, -27, -16, -16,  -1,  17,  -2,   1,
+	     -9, -26,  -9, -10,  -2,  -4,   3,  -3,
+	    -14,   2, -11,  -2,  -5,   2,  14,   5,
+	    -35,  -8,  11,   2,   8,  15,  -3,   1,
+	     -1, -18,  -9,  10, -15, -25, -31, -50,
+	};
+
+	private static final int[] EG_QUEEN_TABLE = {
+	     -9,  22,  22,  27,  27,  19,  10,  20,
+	    -17,  20,  32,  41,  58,  25,  30,   0,
+	    -20,   6,   9,  49,  47,  35,  19,   9,
+	      3,  22,  24,  45,  57,  40,  57,  36,
+	    -18,  28,  19,  47,  31,  34,  39,  23,
+	    -16, -27,  15,   6,   9,  17,  10,   5,
+	    -22, -23, -30, -16, -16, -23, -36, -32,
+	    -33, -28, -22, -43,  -5, -32, -20, -41,
+	};
+
+	private static final int[] MG_KING_TABLE = {
+	    -65,  23,  16, -15, -56, -34,   2,  13,
+	     29,  -1, -20,  -7,  -8,  -4, -38, -29,
+	     -9,  24,   2, -16, -20,   6,  22, -22,
+	    -17, -20, -12, -27, -30, -25, -14, -36,
+	    -49,  -1, -27, -39, -46, -44, -33, -51,
+	    -14, -14, -22, -46, -44, -30, -15, -27,
+	      1,   7,  -8, -64, -43, -16,   9,   8,
+	    -15,  36,  12, -54,   8, -28,  24,  14,
+	};
+
+	private static final int[] EG_KING_TABLE = {
+	    -74, -35, -18, -18, -11,  15,   4, -17,
+	    -12,  17,  14,  17,  17,  38,  23,  11,
+	     10,  17,  23,  15,  20,  45,  44,  13,
+	     -8,  22,  24,  27,  26,  33,  26,   3,
+	    -18,  -4,  21,  24,  27,  23,   9, -11,
+	    -19,  -3,  11,  21,  23,  16,   7,  -9,
+	    -27, -11,   4,  13,  14,   4,  -5, -17,
+	    -53, -34, -21, -11, -28, -14, -24, -43
+	};
+
+	public static final int[][] MG_TABLES = {MG_PAWN_TABLE, MG_KNIGHT_TABLE, MG_BISHOP_TABLE, MG_ROOK_TABLE, MG_QUEEN_TABLE, MG_KING_TABLE};
+	public static final int[][] EG_TABLES = {EG_PAWN_TABLE, EG_KNIGHT_TABLE, EG_BISHOP_TABLE, EG_ROOK_TABLE, EG_QUEEN_TABLE, EG_KING_TABLE};
+	
+	//Material plus piece-square score (packed) of a piece on a board square, by side, enum (1-6) and square
+	public static final int[][][] PIECE_SQUARE = new int[2][7][64];
+	
+	private static final int BISHOP_PAIR = pack(0, 15); //Bishop pairs most effective on open board (endgame)
+	
+	//Pawn structure (packed)
+	private static final int PAWN_FILE = pack(20, 20); //Per file with a pawn (pawns spread over the board)
+	private static final int DOUBLED_PAWN = pack(-10, -20); //Per extra pawn on a file
+	private static final int ISOLATED_PAWN = pack(-5, -15); //No pawns of its own on the files next to it
+	private static final int BACKWARD_PAWN = pack(-8, -10); //Can't be defended by a pawn, and can't advance safely
+	private static final int[] PASSED_PAWN = {0, pack(5, 10), pack(10, 15), pack(15, 25), pack(30, 50), pack(50, 90), pack(80, 140)}; //By rank from its start row (1-6)
+	private static final int KING_SHELTER_MISSING = pack(-15, 0); //Per file at the king without a pawn of its own
+	
+	//Mobility (packed) per square a piece can go to, Pawn through King
+	private static final int[] MOBILITY = {0, pack(4, 4), pack(5, 5), pack(2, 4), pack(1, 2), 0};
+	
+	//Largest midgame/endgame swing of mobility, for the lazy exit before it (measured on Benchmark eval
+	//positions, which fails if one goes past it); revisit it when the term changes
+	private static final int MOBILITY_SWING = pack(180, 220);
+	
+	//Piece values of the exchanges SEE plays out, none then Pawn through King (same as Piece.getValue)
+	private static final int[] SEE_VALUE = {0, 100, 320, 330, 500, 900, 10000};
+	
+	//King safety
+	private static final int[] ATTACK_WEIGHT = {1, 2, 2, 3, 5, 0}; //Attacker units per king zone square attacked, Pawn through King
+	private static final int MAX_ATTACK_PENALTY = 500; //Midgame (a quarter of it in the endgame)
+	private static final int KING_IN_CHECK = pack(-40, -40);
+	private static final int SHELTER_PAWN = pack(10, 0); //Per pawn of its own close in front of the king
+	private static final int STORM_PAWN = pack(-8, 0); //Per enemy pawn advancing on the king's files
+	private static final int KING_SAFETY_SWING; //Most the difference of both sides' king safety can be (from the terms above)
+	
+	private static final long[][] KING_ZONE = new long[2][64]; //Squares around a king of [side] on [sq], and the row in front of them
+	private static final long[][] SHELTER_ZONE = new long[2][64]; //The king's file and the files next to it, 1-2 rows in front
+	private static final long[][] STORM_ZONE = new long[2][64]; //The king's file and the files next to it, 1-4 rows in front
+	
+	private static final long[] ADJACENT_FILES = new long[8];
+	private static final long[][] PASSED_SPAN = new long[2][64]; //Squares ahead of a pawn of [side] on [sq], on its own and the adjacent files
+	private static final long[][] SUPPORT_SPAN = new long[2][64]; //Squares on the adjacent files level with or behind a pawn of [side] on [sq]
+	
+	private static final int PAWN_TABLE_ENTRIES = 1 << 14;
+	private static final int EVAL_CACHE_ENTRIES = 1 << 16;
+	private static final ThreadLocal<ThreadCaches> CACHES = ThreadLocal.withInitial(ThreadCaches::new); //One per search thread
+	private static volatile int cacheGeneration = 0; //Raised by clearCaches
+	
+	private static volatile NnueNetwork network = null; //Evaluates in place of the terms below when set
+	
+	static
 	{
-		int[] mg_value = { 82, 337, 365, 477, 1025,  0};
-		int[] eg_value = { 94, 281, 297, 512,  936,  0};
-		
-		int material = 0;
-		for (int pieceEnum=1;pieceEnum<=6;pieceEnum++) {
-			if (isEndgame)
+		for (int side=0;side<2;side++)
+		{
+			boolean near = Bitboard.side(Game.NEAR_COLOR) == side;
+			for (int pieceEnum=1;pieceEnum<=6;pieceEnum++)
 			{
-				material += eg_value[pieceEnum-1]*board.getPiecesOfType(pieceEnum, color).size();
+				for (int sq=0;sq<64;sq++)
+				{
+					int pos = near ? sq : sq ^ 56; //Tables are read from the far side for the far color
+					PIECE_SQUARE[side][pieceEnum][sq] = pack(MG_VALUE[pieceEnum-1] + MG_TABLES[pieceEnum-1][pos],
+							EG_VALUE[pieceEnum-1] + EG_TABLES[pieceEnum-1][pos]);
+				}
 			}
-			else
+		}
+		
+		for (int file=0;file<8;file++)
+		{
+			ADJACENT_FILES[file] = (file > 0 ? Bitboard.FILES[file-1] : 0L) | (file < 7 ? Bitboard.FILES[file+1] : 0L);
+		}
+		for (int side=0;side<2;side++)
+		{
+			int dr = Bitboard.PAWN_PUSH[side] / 8;
+			for (int sq=0;sq<64;sq++)
 			{
-				material += mg_value[pieceEnum-1]*board.getPiecesOfType(pieceEnum, color).size();
+				long ahead = 0L;
+				for (int row=sq/8+dr;row>=0 && row<8;row+=dr)
+				{
+					ahead |= Bitboard.ROWS[row];
+				}
+				PASSED_SPAN[side][sq] = (Bitboard.FILES[sq%8] | ADJACENT_FILES[sq%8]) & ahead;
+				SUPPORT_SPAN[side][sq] = ADJACENT_FILES[sq%8] & ~ahead;
+				
+				long ring = Bitboard.KING_ATTACKS[sq] | (1L << sq);
+				KING_ZONE[side][sq] = ring | (dr > 0 ? ring << 8 : ring >>> 8);
+				long kingFiles = Bitboard.FILES[sq%8] | ADJACENT_FILES[sq%8];
+				for (int rows=1;rows<=4;rows++)
+				{
+					int row = sq/8 + dr * rows;
+					if (row >= 0 && row < 8)
+					{
+						STORM_ZONE[side][sq] |= kingFiles & Bitboard.ROWS[row];
+						if (rows <= 2)
+						{
+							SHELTER_ZONE[side][sq] |= kingFiles & Bitboard.ROWS[row];
+						}
+					}
+				}
 			}
 		}
 		
-		return material;
+		//Best king safety of one side (full shelter) minus the worst of the other (largest attack
+		//penalty, in check, full storm), for the lazy exit before king safety
+		int shelterPawns = 0;
+		int stormPawns = 0;
+		for (int side=0;side<2;side++)
+		{
+			for (int sq=0;sq<64;sq++)
+			{
+				shelterPawns = Math.max(shelterPawns, Math.min(8, Long.bitCount(SHELTER_ZONE[side][sq])));
+				stormPawns = Math.max(stormPawns, Math.min(8, Long.bitCount(STORM_ZONE[side][sq])));
+			}
+		}
+		int worst = -pack(MAX_ATTACK_PENALTY, MAX_ATTACK_PENALTY / 4) + KING_IN_CHECK + stormPawns * STORM_PAWN;
+		KING_SAFETY_SWING = shelterPawns * SHELTER_PAWN - worst;
 	}
-	private static int calculateMaterialWithoutPawns(Board board, Color color)
+	
+	/**
+	 * Packs a midgame and an endgame score into one int (endgame in the high 16 bits, midgame in the low
+	 * 16 bits), so both are added up by one addition. Packed scores can be added, subtracted and negated
+	 */
+	public static int pack(int midgame, int endgame)
 	{
-		int[] value = {100,300,300,500,900};
-		int material = 0;
-		for (int pieceEnum=2;pieceEnum<=5;pieceEnum++) {
-			material += value[pieceEnum-1]*board.getPiecesOfType(pieceEnum, color).size();
-		}
-		
-		return material;
+		return (endgame << 16) + midgame;
+	}
+	
+	// Returns the midgame score of a packed score
+	public static int midgame(int score)
+	{
+		return (short) score;
+	}
+	
+	// Returns the endgame score of a packed score
+	public static int endgame(int score)
+	{
+		return (score + 0x8000) >> 16;
 	}
 	
+	/**
+	 * Returns the endgame material (without pawns) of a piece
+	 */
+	public static int nonPawnValue(int pieceEnum)
+	{
+		return NON_PAWN_VALUE[pieceEnum-1];
+	}
+	
+	/**
+	 * Returns the phase weight of a piece
+	 */
+	public static int phaseWeight(int pieceEnum)
+	{
+		return PHASE_WEIGHT[pieceEnum-1];
+	}
+
 	/**
 	 * Calculates the bishop pair score of a certain color
 	 * 
 	 * @param board The board
-	 * @param col   The color
-	 * @return The bishop pair score
+	 * @param side  The side (Bitboard.WHITE or Bitboard.BLACK)
+	 * @return The bishop pair score (packed)
 	 */
-	private static int calculateBishopPair(Board board, Color col, boolean isEndgame)
+	private static int calculateBishopPair(Board board, int side)
 	{
-		ArrayList<Piece> bishops = board.getPiecesOfType(Bishop.ENUM, col);
-		
-		//Bishop pairs most effective on open board (endgame)
-		return isEndgame ? (bishops.size() == 2 ? 15 : 0) : 0;
+		return Long.bitCount(board.getBitboard(Bishop.ENUM, side)) == 2 ? BISHOP_PAIR : 0;
 	}
 	
 	/**
-	 * Calculates the pawn structure for a certain color by evaluating how many columns filled with
-	 * pawns
+	 * Calculates the tapered material, piece-square and bishop pair score, from the totals the board
+	 * keeps as pieces move
 	 * 
 	 * @param board The board
-	 * @param col   The color
-	 * @return The pawn structure score
+	 * @return The score (positive favoring white)
 	 */
-	private static int calculatePawnStructure(Board board, Color col)
+	public static int calculateMaterialPosition(Board board)
+	{
+		int score = board.getPieceSquareScore(Bitboard.WHITE) - board.getPieceSquareScore(Bitboard.BLACK);
+		score += calculateBishopPair(board, Bitboard.WHITE) - calculateBishopPair(board, Bitboard.BLACK);
+		return calculateTapered(board.getPhaseWeight(), score);
+	}
+	
+	/**
+	 * Calculates the tapered material, piece-square and bishop pair score from scratch, in a single
+	 * pass that visits each piece once (gives the same score as calculateMaterialPosition)
+	 * 
+	 * @param board The board
+	 * @return The score (positive favoring white)
+	 */
+	public static int calculateMaterialPositionFull(Board board)
 	{
 		int score = 0;
-		ArrayList<Location> locs = board.getOccupiedLocations();
-		ArrayList<Piece> pawns = board.getPiecesOfType(Pawn.ENUM, col);
-		
-		boolean[] hasPawn = new boolean[board.getNumCols()];
-		for (Piece p: pawns) {
-			hasPawn[p.getLocation().getCol()] = true;
-		}
-		for (boolean has: hasPawn)
+		int phaseWeight = 0;
+		for (int side=0;side<2;side++)
 		{
-			if (has)
+			int sideScore = calculateBishopPair(board, side);
+			for (int pieceEnum=1;pieceEnum<=6;pieceEnum++)
 			{
-				score += 20;
+				int[] table = PIECE_SQUARE[side][pieceEnum];
+				long pieces = board.getBitboard(pieceEnum, side);
+				phaseWeight += PHASE_WEIGHT[pieceEnum-1] * Long.bitCount(pieces);
+				while (pieces != 0)
+				{
+					sideScore += table[Long.numberOfTrailingZeros(pieces)];
+					pieces &= pieces - 1;
+				}
 			}
+			score += side == Bitboard.WHITE ? sideScore : -sideScore;
 		}
-		return score;
+		return calculateTapered(phaseWeight, score);
 	}
-
+	
+	/**
+	 * The pawn table and evaluation cache of one thread
+	 */
+	private static class ThreadCaches
+	{
+		private final PawnTable pawnTable = new PawnTable(PAWN_TABLE_ENTRIES);
+		private final EvalCache evalCache = new EvalCache(EVAL_CACHE_ENTRIES);
+		private int generation = cacheGeneration;
+	}
+	
+	/**
+	 * Returns the caches of the current thread, emptied first if clearCaches has been called since
+	 * they were last used
+	 */
+	private static ThreadCaches getCaches()
+	{
+		ThreadCaches caches = CACHES.get();
+		int generation = cacheGeneration;
+		if (caches.generation != generation)
+		{
+			caches.pawnTable.clear();
+			caches.evalCache.clear();
+			caches.generation = generation;
+		}
+		return caches;
+	}
+	
+	/**
+	 * Empties the pawn table and evaluation cache of every thread (each thread's are emptied the next
+	 * time it uses them)
+	 */
+	public static void clearCaches()
+	{
+		cacheGeneration++;
+	}
+	
 	/**
-	 * Calculates the king safety of a certain color
+	 * Returns the evaluation cache of the current thread
+	 */
+	public static EvalCache getEvalCache()
+	{
+		return getCaches().evalCache;
+	}
+	
+	/**
+	 * Returns the pawn table of the current thread
+	 */
+	public static PawnTable getPawnTable()
+	{
+		return getCaches().pawnTable;
+	}
+	
+	/**
+	 * Finds the pawn structure of the board in the pawn table, evaluating and caching it if it's not
+	 * there: spread over files, doubled, isolated and backward pawns, and which pawns are passed
 	 * 
 	 * @param board The board
-	 * @param col   The color
-	 * @return The king safety score
+	 * @param table The pawn table
+	 * @return The index of the pawn structure's entry
 	 */
-	public static int calculateKingSafety(Board board, Color col)
+	private static int probePawnStructure(Board board, PawnTable table)
 	{
+		int index = table.probe(board.getPawnKey());
+		if (index >= 0)
+		{
+			return index;
+		}
+		
 		int score = 0;
-		King king = board.getKing(col);
-		HashSet<Location> attacked = board.allAttackedSquares(Board.oppositeColor(col));
-
-		if (attacked.contains(king.getLocation()))
+		long[] passed = new long[2];
+		int fileMask = 0;
+		for (int side=0;side<2;side++)
 		{
-			score -= 40; // Check
+			long pawns = board.getBitboard(Pawn.ENUM, side);
+			long enemyPawns = board.getBitboard(Pawn.ENUM, 1 - side);
+			int sideScore = 0;
+			for (int file=0;file<8;file++)
+			{
+				int onFile = Long.bitCount(pawns & Bitboard.FILES[file]);
+				if (onFile > 0)
+				{
+					fileMask |= 1 << (file + 8 * side);
+					sideScore += PAWN_FILE + (onFile - 1) * DOUBLED_PAWN;
+				}
+			}
+			
+			long rest = pawns;
+			while (rest != 0)
+			{
+				int sq = Long.numberOfTrailingZeros(rest);
+				rest &= rest - 1;
+				if ((pawns & ADJACENT_FILES[sq%8]) == 0)
+				{
+					sideScore += ISOLATED_PAWN;
+				}
+				else if ((pawns & SUPPORT_SPAN[side][sq]) == 0
+						&& (Bitboard.PAWN_ATTACKS[side][sq + Bitboard.PAWN_PUSH[side]] & enemyPawns) != 0)
+				{
+					sideScore += BACKWARD_PAWN;
+				}
+				if ((enemyPawns & PASSED_SPAN[side][sq]) == 0)
+				{
+					passed[side] |= 1L << sq;
+				}
+			}
+			score += side == Bitboard.WHITE ? sideScore : -sideScore;
 		}
-		for (Location loc : board.getOccupiedAdjacentLocations(king.getLocation()))
+		return table.store(board.getPawnKey(), score, passed[Bitboard.WHITE], passed[Bitboard.BLACK], fileMask);
+	}
+	
+	/**
+	 * Calculates the pawn score: the (cached) pawn structure, passed pawns by how far they've advanced,
+	 * and the shelter of each king by pawns on its file and the files next to it
+	 * 
+	 * @param board The board
+	 * @return The packed score (positive favoring white)
+	 */
+	private static int calculatePawns(Board board)
+	{
+		PawnTable table = getPawnTable();
+		int index = probePawnStructure(board, table);
+		int score = table.score(index);
+		for (int side=0;side<2;side++)
 		{
-			if (attacked.contains(loc))
+			int sideScore = 0;
+			long passed = table.passed(index, side);
+			while (passed != 0)
+			{
+				int sq = Long.numberOfTrailingZeros(passed);
+				passed &= passed - 1;
+				sideScore += PASSED_PAWN[Math.abs(sq/8 - Bitboard.PAWN_START_ROW[side]) + 1];
+			}
+			
+			long king = board.getBitboard(King.ENUM, side);
+			if (king != 0)
 			{
-				score -= 10; // Adjacent Squares attacked
+				int kingFile = Long.numberOfTrailingZeros(king) % 8;
+				int shelterFiles = ((7 << kingFile) >> 1) & 0xFF;
+				sideScore += Integer.bitCount(shelterFiles & ~table.fileMask(index, side)) * KING_SHELTER_MISSING;
 			}
+			score += side == Bitboard.WHITE ? sideScore : -sideScore;
 		}
 		return score;
-
 	}
 
 	/**
-	 * Calculates the phase value for tapered evaluation
+	 * Calculates the mobility score from the attack sets of the knights, bishops, rooks and queens: the
+	 * squares each one attacks that aren't taken by its own pieces or attacked by enemy pawns, weighted
+	 * by piece type
 	 * 
-	 * @param The current board
-	 * @return The phase value
+	 * @param board The board
+	 * @return The packed score (positive favoring white)
 	 */
-	private static int calculatePhase(Board board)
+	private static int calculateMobility(Board board)
 	{
-		//Calculate number of every piece
-		int[][] numPieces = new int[2][6];
-		
-		for (int pieceEnum=1;pieceEnum<=6;pieceEnum++)
+		long occ = board.getOccupied();
+		int score = 0;
+		for (int side=0;side<2;side++)
 		{
-			for (int color=0;color<=1;color++)
+			long available = ~board.getBitboard(0, side) & ~Bitboard.pawnAttacks(board.getBitboard(Pawn.ENUM, 1 - side), 1 - side);
+			int sideScore = 0;
+			for (int pieceEnum=Knight.ENUM;pieceEnum<=Queen.ENUM;pieceEnum++)
 			{
-				numPieces[color][pieceEnum-1] = board.getPiecesOfType(pieceEnum, color==0?Color.WHITE:Color.BLACK).size();
+				long pieces = board.getBitboard(pieceEnum, side);
+				while (pieces != 0)
+				{
+					int sq = Long.numberOfTrailingZeros(pieces);
+					pieces &= pieces - 1;
+					sideScore += Long.bitCount(Bitboard.attacks(pieceEnum, side, sq, occ) & available) * MOBILITY[pieceEnum-1];
+				}
 			}
+			score += side == Bitboard.WHITE ? sideScore : -sideScore;
+		}
+		return score;
+	}
+	
+	/**
+	 * Calculates the king safety of a side, without allocating: the enemy pieces attacking the king
+	 * zone (the squares around the king and the row in front of them) add up attacker units by how
+	 * many zone squares they hit, which only count once at least two pieces join the attack. Pawns
+	 * close in front of the king shelter it, and enemy pawns advancing on its files storm it
+	 * 
+	 * @param board The board
+	 * @param side  The side of the king (Bitboard.WHITE or Bitboard.BLACK)
+	 * @return The packed king safety score of the side
+	 */
+	public static int calculateKingSafety(Board board, int side)
+	{
+		long king = board.getBitboard(King.ENUM, side);
+		if (king == 0)
+		{
+			return 0;
 		}
+		int kingSquare = Long.numberOfTrailingZeros(king);
+		int enemy = 1 - side;
+		long occ = board.getOccupied();
+		long zone = KING_ZONE[side][kingSquare];
 		
-		int[] pieceP = {0,1,1,2,4};
-		int pawnP = pieceP[0];
-		int knightP = pieceP[1];
-		int bishopP = pieceP[2];
-		int rookP = pieceP[3];
-		int queenP = pieceP[4];
-		int totP = pawnP*16 + knightP*4 + bishopP*4 + rookP*4 + queenP*2;
-
-		//Calculate current phase
-		int curP = totP;
-		for (int color=0;color<2;color++)
+		int attackers = 0;
+		int units = 0;
+		int pawnHits = Long.bitCount(Bitboard.pawnAttacks(board.getBitboard(Pawn.ENUM, enemy), enemy) & zone);
+		if (pawnHits > 0)
+		{
+			attackers++;
+			units += pawnHits * ATTACK_WEIGHT[Pawn.ENUM-1];
+		}
+		for (int pieceEnum=Knight.ENUM;pieceEnum<=Queen.ENUM;pieceEnum++)
 		{
-			for (int piece=0;piece<5;piece++)
+			long pieces = board.getBitboard(pieceEnum, enemy);
+			while (pieces != 0)
 			{
-				curP -= numPieces[color][piece] * pieceP[piece];
+				int sq = Long.numberOfTrailingZeros(pieces);
+				pieces &= pieces - 1;
+				int hits = Long.bitCount(Bitboard.attacks(pieceEnum, enemy, sq, occ) & zone);
+				if (hits > 0)
+				{
+					attackers++;
+					units += hits * ATTACK_WEIGHT[pieceEnum-1];
+				}
 			}
 		}
-		return (curP * 256 + (totP/2))/totP;
+		
+		int score = 0;
+		if (attackers >= 2)
+		{
+			int penalty = Math.min(units * units / 4, MAX_ATTACK_PENALTY);
+			score -= pack(penalty, penalty / 4);
+		}
+		if (board.attackersTo(kingSquare, enemy, occ) != 0)
+		{
+			score += KING_IN_CHECK;
+		}
+		score += Long.bitCount(board.getBitboard(Pawn.ENUM, side) & SHELTER_ZONE[side][kingSquare]) * SHELTER_PAWN;
+		score += Long.bitCount(board.getBitboard(Pawn.ENUM, enemy) & STORM_ZONE[side][kingSquare]) * STORM_PAWN;
+		return score;
+	}
+
+	/**
+	 * Calculates the phase value for tapered evaluation (0 - opening, 256 - endgame)
+	 * 
+	 * @param phaseWeight The sum of the phase weights of the pieces on the board
+	 * @return The phase value
+	 */
+	private static int calculatePhase(int phaseWeight)
+	{
+		int curP = TOTAL_PHASE - phaseWeight;
+		return (curP * 256 + (TOTAL_PHASE/2))/TOTAL_PHASE;
 	}
 	
 	/**
 	 * Calculates the tapered evaluation for a current evaluation that
 	 * includes opening and endgame scenarios
-	 * @param board The current board
-	 * @param openingEval The evaluation for midgame
-	 * @param endgameEval the evaluation for endgame
+	 * @param phaseWeight The sum of the phase weights of the pieces on the board
+	 * @param eval The packed midgame and endgame evaluation
 	 * @return The calculated tapered evaluation
 	 */
-	private static int calculateTapered(Board board, int midgameEval, int endgameEval)
+	private static int calculateTapered(int phaseWeight, int eval)
 	{
-		int phase = calculatePhase(board);
-		return ((midgameEval * (256 - phase)) + (endgameEval * phase))/256;
+		int phase = calculatePhase(phaseWeight);
+		return ((midgame(eval) * (256 - phase)) + (endgame(eval) * phase))/256;
 	}
 	
 	/**
-	 * Calculates the piece position of a certain color
+	 * Sets the network that evaluates positions in place of the hand-written terms, and empties the
+	 * evaluation caches so no score of the other evaluator is returned (set it between searches)
 	 * 
-	 * @param board The board
-	 * @param col   The color
-	 * @return The position rating
+	 * @param nnue The network, or null to evaluate with the hand-written terms
 	 */
-	public static int calculatePiecePosition(Board board, Color col, boolean isEndgame)
+	public static void setNetwork(NnueNetwork nnue)
 	{
-		int[] mg_pawn_table = {
-			      0,   0,   0,   0,   0,   0,  0,   0,
-			     98, 134,  61,  95,  68, 126, 34, -11,
-			     -6,   7,  26,  31,  65,  56, 25, -20,
-			    -14,  13,   6,  21,  23,  12, 17, -23,
-			    -27,  -2,  -5,  12,  17,   6, 10, -25,
-			    -26,  -4,  -4, -10,   3,   3, 33, -12,
-			    -35,  -1, -20, -23, -15,  24, 38, -22,
-			      0,   0,   0,   0,   0,   0,  0,   0,
-		};
-
-		int[] eg_pawn_table = {
-		      0,   0,   0,   0,   0,   0,   0,   0,
-		    178, 173, 158, 134, 147, 132, 165, 187,
-		     94, 100,  85,  67,  56,  53,  82,  84,
-		     32,  24,  13,   5,  -2,   4,  17,  17,
-		     13,   9,  -3,  -7,  -7,  -8,   3,  -1,
-		      4,   7,  -6,   1,   0,  -5,  -1,  -8,
-		     13,   8,   8,  10,  13,   0,   2,  -7,
-		      0,   0,   0,   0,   0,   0,   0,   0,
-		};
-
-		int[] mg_knight_table = {
-		    -167, -89, -34, -49,  61, -97, -15, -107,
-		     -73, -41,  72,  36,  23,  62,   7,  -17,
-		     -47,  60,  37,  65,  84, 129,  73,   44,
-		      -9,  17,  19,  53,  37,  69,  18,   22,
-		     -13,   4,  16,  13,  28,  19,  21,   -8,
-		     -23,  -9,  12,  10,  19,  17,  25,  -16,
-		     -29, -53, -12,  -3,  -1,  18, -14,  -19,
-		    -105, -21, -58, -33, -17, -28, -19,  -23,
-		};
-
-		int[] eg_knight_table = {
-		    -58, -38, -13, -28, -31, -27, -63, -99,
-		    -25,  -8, -25,  -2,  -9, -25, -24, -52,
-		    -24, -20,  10,   9,  -1,  -9, -19, -41,
-		    -17,   3,  22,  22,  22,  11,   8, -18,
-		    -18,  -6,  16,  25,  16,  17,   4, -18,
-		    -23,  -3,  -1,  15,  10,  -3, -20, -22,
-		    -42, -20, -10,  -5,  -2, -20, -23, -44,
-		    -29, -51, -23, -15, -22, -18, -50, -64,
-		};
-
-		int[] mg_bishop_table = {
-		    -29,   4, -82, -37, -25, -42,   7,  -8,
-		    -26,  16, -18, -13,  30,  59,  18, -47,
-		    -16,  37,  43,  40,  35,  50,  37,  -2,
-		     -4,   5,  19,  50,  37,  37,   7,  -2,
-		     -6,  13,  13,  26,  34,  12,  10,   4,
-		      0,  15,  15,  15,  14,  27,  18,  10,
-		      4,  15,  16,   0,   7,  21,  33,   1,
-		    -33,  -3, -14, -21, -13, -12, -39, -21,
-		};
-
-		int[] eg_bishop_table = {
-		    -14, -21, -11,  -8, -7,  -9, -17, -24,
-		     -8,  -4,   7, -12, -3, -13,  -4, -14,
-		      2,  -8,   0,  -1, -2,   6,   0,   4,
-		     -3,   9,  12,   9, 14,  10,   3,   2,
-		     -6,   3,  13,  19,  7,  10,  -3,  -9,
-		    -12,  -3,   8,  10, 13,   3,  -7, -15,
-		    -14, -18,  -7,  -1,  4,  -9, -15, -27,
-		    -23,  -9, -23,  -5, -9, -16,  -5, -17,
-		};
-
-		int[] mg_rook_table = {
-		     32,  42,  32,  51, 63,  9,  31,  43,
-		     27,  32,  58,  62, 80, 67,  26,  44,
-		     -5,  19,  26,  36, 17, 45,  61,  16,
-		    -24, -11,   7,  26, 24, 35,  -8, -20,
-		    -36, -26, -12,  -1,  9, -7,   6, -23,
-		    -45, -25, -16, -17,  3,  0,  -5, -33,
-		    -44, -16, -20,  -9, -1, 11,  -6, -71,
-		    -19, -13,   1,  17, 16,  7, -37, -26,
-		};
-
-		int[] eg_rook_table = {
-		    13, 10, 18, 15, 12,  12,   8,   5,
-		    11, 13, 13, 11, -3,   3,   8,   3,
-		     7,  7,  7,  5,  4,  -3,  -5,  -3,
-		     4,  3, 13,  1,  2,   1,  -1,   2,
-		     3,  5,  8,  4, -5,  -6,  -8, -11,
-		    -4,  0, -5, -1, -7, -12,  -8, -16,
-		    -6, -6,  0,  2, -9,  -9, -11,  -3,
-		    -9,  2,  3, -1, -5, -13,   4, -20,
-		};
-
-		int[] mg_queen_table = {
-		    -28,   0,  29,  12,  59,  44,  43,  45,
-		    -24, -39,  -5,   1, -16,  57,  28,  54,
-		    -13, -17,   7,   8,  29,  56,  47,  57,
-		    -27, -27, -16, -16,  -1,  17,  -2,   1,
-		     -9, -26,  -9, -10,  -2,  -4,   3,  -3,
-		    -14,   2, -11,  -2,  -5,   2,  14,   5,
-		    -35,  -8,  11,   2,   8,  15,  -3,   1,
-		     -1, -18,  -9,  10, -15, -25, -31, -50,
-		};
-
-		int[] eg_queen_table = {
-		     -9,  22,  22,  27,  27,  19,  10,  20,
-		    -17,  20,  32,  41,  58,  25,  30,   0,
-		    -20,   6,   9,  49,  47,  35,  19,   9,
-		      3,  22,  24,  45,  57,  40,  57,  36,
-		    -18,  28,  19,  47,  31,  34,  39,  23,
-		    -16, -27,  15,   6,   9,  17,  10,   5,
-		    -22, -23, -30, -16, -16, -23, -36, -32,
-		    -33, -28, -22, -43,  -5, -32, -20, -41,
-		};
-
-		int[] mg_king_table = {
-		    -65,  23,  16, -15, -56, -34,   2,  13,
-		     29,  -1, -20,  -7,  -8,  -4, -38, -29,
-		     -9,  24,   2, -16, -20,   6,  22, -22,
-		    -17, -20, -12, -27, -30, -25, -14, -36,
-		    -49,  -1, -27, -39, -46, -44, -33, -51,
-		    -14, -14, -22, -46, -44, -30, -15, -27,
-		      1,   7,  -8, -64, -43, -16,   9,   8,
-		    -15,  36,  12, -54,   8, -28,  24,  14,
-		};
-
-		int[] eg_king_table = {
-		    -74, -35, -18, -18, -11,  15,   4, -17,
-		    -12,  17,  14,  17,  17,  38,  23,  11,
-		     10,  17,  23,  15,  20,  45,  44,  13,
-		     -8,  22,  24,  27,  26,  33,  26,   3,
-		    -18,  -4,  21,  24,  27,  23,   9, -11,
-		    -19,  -3,  11,  21,  23,  16,   7,  -9,
-		    -27, -11,   4,  13,  14,   4,  -5, -17,
-		    -53, -34, -21, -11, -28, -14, -24, -43
-		};
-		
-		int[][] mg_piece_table =
-		{
-		    mg_pawn_table,
-		    mg_knight_table,
-		    mg_bishop_table,
-		    mg_rook_table,
-		    mg_queen_table,
-		    mg_king_table
-		};
-
-		int[][] eg_piece_table =
-		{
-		    eg_pawn_table,
-		    eg_knight_table,
-		    eg_bishop_table,
-		    eg_rook_table,
-		    eg_queen_table,
-		    eg_king_table
-		};
-		
-		int rating = 0;
-
-		for (int pieceEnum=1;pieceEnum<=6;pieceEnum++)
-		{
-			for (Piece p: board.getPiecesOfType(pieceEnum, col))
-			{
-				Location l = p.getLocation();
-				int r = p.getColor().equals(Game.NEAR_COLOR) ? l.getRow() : 7 - l.getRow();
-				int c = l.getCol();
-
-				int pos = 8*r + c;
-				
-				if (isEndgame)
-				{
-					rating += eg_piece_table[p.getEnum()-1][pos];
-				}
-				else
-				{
-					rating += mg_piece_table[p.getEnum()-1][pos];
-				}
-			}
-		}
-		return rating;
+		network = nnue;
+		clearCaches();
 	}
 	
 	/**
@@ -369,122 +645,169 @@ public class Evaluation
 	 */
 	public static EvaluationInfo evaluate(Board board)
 	{
-		int score = 0;
-		
-		// Material Balance
-		int whiteMaterialMG = calculateMaterial(board, Color.WHITE, false);
-		int blackMaterialMG = calculateMaterial(board, Color.BLACK, false);
-		int whiteMaterialEG = calculateMaterial(board, Color.WHITE, true);
-		int blackMaterialEG = calculateMaterial(board, Color.BLACK, true);
-		
-		int deltaMaterialMG = whiteMaterialMG - blackMaterialMG;
-		int deltaMaterialEG = whiteMaterialEG - blackMaterialEG;
-		
-		// Position
-		int whitePositionMG = calculatePiecePosition(board, Color.WHITE, false);
-		int blackPositionMG = calculatePiecePosition(board, Color.BLACK, false);
-		int whitePositionEG = calculatePiecePosition(board, Color.WHITE, true);
-		int blackPositionEG = calculatePiecePosition(board, Color.BLACK, true);
+		return evaluate(board, 1, -Integer.MAX_VALUE, Integer.MAX_VALUE);
+	}
+	
+	/**
+	 * Evaluation function for the current state of the board, in stages: if the cheap material,
+	 * position and (cached) pawn score is further outside the search window than the largest swing of
+	 * king safety and mobility, they can't bring it back inside, so it's returned as a lazy value
+	 * without computing them; the same goes for mobility once king safety is added. Full values are
+	 * cached by the position's Zobrist key. With a network set (see setNetwork), it scores every
+	 * position in full
+	 * 
+	 * @param board The board
+	 * @param color The color the window is from the view of (1 - White, -1 - Black)
+	 * @param alpha The lower bound of the window
+	 * @param beta The upper bound of the window
+	 * @return An integer describing the board, more negative favoring black and vice versa
+	 *         (utilizes units of centipawns), and if it's a full or a lazy value
+	 */
+	public static EvaluationInfo evaluate(Board board, int color, int alpha, int beta)
+	{
+		EvalCache cache = getEvalCache();
+		long key = board.getZobristKey();
+		int cached = cache.probe(key);
+		if (cached != EvalCache.MISS)
+		{
+			return new EvaluationInfo(cached, true);
+		}
 		
-		int deltaPositionMG = whitePositionMG - blackPositionMG;
-		int deltaPositionEG = whitePositionEG - blackPositionEG;
+		NnueNetwork nnue = network;
+		if (nnue != null)
+		{
+			int score = nnue.evaluate(board);
+			cache.store(key, score);
+			return new EvaluationInfo(score, true);
+		}
 		
-		//Bishop Pair
-		int whiteBishopPairMG = calculateBishopPair(board, Color.WHITE, false);
-		int blackBishopPairMG = calculateBishopPair(board, Color.BLACK, false);
-		int whiteBishopPairEG = calculateBishopPair(board, Color.WHITE, true);
-		int blackBishopPairEG = calculateBishopPair(board, Color.BLACK, true);
+		int score = 0;
 		
-		int deltaBishopPairMG = whiteBishopPairMG - blackBishopPairMG;
-		int deltaBishopPairEG = whiteBishopPairEG - blackBishopPairEG;
+		// Material Balance, Position and Bishop Pair (tapered, from the board's running totals)
+		score += calculateMaterialPosition(board);
 		
-		//Tapered Evaluation with material-position hybrid
-		int deltaMatPosMG = deltaMaterialMG + deltaPositionMG + deltaBishopPairMG;
-		int deltaMatPosEG = deltaMaterialEG + deltaPositionEG + deltaBishopPairEG;
-		score += calculateTapered(board, deltaMatPosMG, deltaMatPosEG);	
+		// Pawn Structure, Passed Pawns and King Shelter (structure cached by pawn key)
+		int phaseWeight = board.getPhaseWeight();
+		int positional = calculatePawns(board);
 		
+		// Lazy Evaluation
+		int lazyScore = score + calculateTapered(phaseWeight, positional);
+		if (isOutsideWindow(lazyScore, color, alpha, beta, phaseWeight, KING_SAFETY_SWING + MOBILITY_SWING))
+		{
+			return new EvaluationInfo(lazyScore, false);
+		}
 	
 		// [[More advanced evaluations (will slow down computing drastically)]]
 		
-		// Pawn Structure
-		int whiteStructure = calculatePawnStructure(board, Color.WHITE);
-		int blackStructure = calculatePawnStructure(board, Color.BLACK);
-		int deltaStructure = whiteStructure - blackStructure;
-		score += deltaStructure;
-		
 		// King Safety
-		int whiteKingSafety = calculateKingSafety(board, Color.WHITE);
-		int blackKingSafety = calculateKingSafety(board, Color.BLACK);
-		int deltaSafety = whiteKingSafety - blackKingSafety;
-		score += deltaSafety;
-				
-		// Mobility (deep, slows down computing by 3x) (+25 legal moves = 1 pawn (100 centipawns))
-		int whiteMoves = board.allMoves(Color.WHITE).size();
-		int blackMoves = board.allMoves(Color.BLACK).size();
-		int deltaMoves = (whiteMoves - blackMoves)*4;
-		score += deltaMoves;
+		positional += calculateKingSafety(board, Bitboard.WHITE) - calculateKingSafety(board, Bitboard.BLACK);
+		lazyScore = score + calculateTapered(phaseWeight, positional);
+		if (isOutsideWindow(lazyScore, color, alpha, beta, phaseWeight, MOBILITY_SWING))
+		{
+			return new EvaluationInfo(lazyScore, false);
+		}
 		
+		// Mobility
+		positional += calculateMobility(board);
+		score += calculateTapered(phaseWeight, positional);
 		
+		cache.store(key, score);
 		return new EvaluationInfo(score, true);
 		
 	}
 	
 	/**
-	 * Checks if the current state is in endgame
-	 * @param board The current board
-	 * @return True if in endgame, false otherwise
+	 * Returns true if a score is so far outside the search window that terms swinging it by at most
+	 * a packed amount can't bring it back inside
+	 * 
+	 * @param score The score (positive favoring white)
+	 * @param color The color the window is from the view of (1 - White, -1 - Black)
+	 * @param alpha The lower bound of the window
+	 * @param beta The upper bound of the window
+	 * @param phaseWeight The sum of the phase weights of the pieces on the board
+	 * @param swing The packed largest swing of the terms not yet added
 	 */
-	public static boolean isEndgame(Board board) {
-		int whiteMaterial = calculateMaterialWithoutPawns(board, Color.WHITE);
-		int blackMaterial = calculateMaterialWithoutPawns(board, Color.BLACK);
-		return whiteMaterial / 100 <= 14 && blackMaterial / 100 <= 14;
+	private static boolean isOutsideWindow(int score, int color, int alpha, int beta, int phaseWeight, int swing)
+	{
+		int margin = calculateTapered(phaseWeight, swing);
+		int relativeScore = score * color;
+		return relativeScore + margin <= alpha || relativeScore - margin >= beta;
 	}
 	
 	/**
-	 * Returns the smallest attacker of a location that's a certain color
-	 * @param board The current board
-	 * @param loc The location to check
-	 * @param color The piece color
-	 * @return The smallest attacker
+	 * Returns how far the terms each lazy exit skips move the score of a board past their swing (0 if
+	 * they stay within it, so a lazy value is on the right side of any window), to check the swings with
+	 * 
+	 * @param board The board
+	 * @return The most centipawns past a swing
 	 */
-	private static Piece getSmallestAttacker(Board board, Location loc, int color)
+	public static int lazyMarginExcess(Board board)
 	{
-		ArrayList<Piece> attackers = board.getAllAttackers(loc, color == 1 ? Color.WHITE : Color.BLACK);
-		Piece smallest = null;
-		for (Piece p: attackers)
-		{
-			if (smallest == null || p.getValue() < smallest.getValue())
-			{
-				smallest = p;
-			}
-		}
-		return smallest;
+		int phaseWeight = board.getPhaseWeight();
+		int pawns = calculatePawns(board);
+		int kingSafety = calculateKingSafety(board, Bitboard.WHITE) - calculateKingSafety(board, Bitboard.BLACK);
+		int full = calculateTapered(phaseWeight, pawns + kingSafety + calculateMobility(board));
+		int beforeKingSafety = full - calculateTapered(phaseWeight, pawns);
+		int beforeMobility = full - calculateTapered(phaseWeight, pawns + kingSafety);
+		return Math.max(0, Math.max(Math.abs(beforeKingSafety) - calculateTapered(phaseWeight, KING_SAFETY_SWING + MOBILITY_SWING),
+				Math.abs(beforeMobility) - calculateTapered(phaseWeight, MOBILITY_SWING)));
 	}
 	
 	/**
-	 * Static Exchange Evaluation for better analyzing captures
+	 * Checks if the current state is in endgame
+	 * @param board The current board
+	 * @return True if in endgame, false otherwise
+	 */
+	public static boolean isEndgame(Board board) {
+		int whiteMaterial = board.getNonPawnMaterial(Bitboard.WHITE);
+		int blackMaterial = board.getNonPawnMaterial(Bitboard.BLACK);
+		return whiteMaterial / 100 <= 14 && blackMaterial / 100 <= 14;
+	}
+	
+	/**
+	 * Static Exchange Evaluation for better analyzing captures. Plays out the exchange on the attack set
+	 * of the square without touching the board: each side recaptures with its least valuable attacker,
+	 * and every piece taken off the occupancy can reveal a slider behind it (x-ray)
+	 * 
 	 * @param board The current board
-	 * @param loc The location of battle
-	 * @param color The starting color (to make first capture)
+	 * @param m The packed capture move that starts the exchange
+	 * @return The material gained by the side making the capture
 	 */
-	public static int SEE(Board board, Move m)
+	public static int SEE(Board board, int m)
 	{
-		int color = m.getPiece().getColor().equals(Color.WHITE) ? 1 : -1;
-		Location square = m.getDestination();
+		int square = PackedMove.to(m);
+		int from = PackedMove.from(m);
+		int side = (board.getBitboard(0, Bitboard.WHITE) & (1L << from)) != 0 ? Bitboard.WHITE : Bitboard.BLACK;
+		
+		long diagonal = board.getBitboard(Bishop.ENUM, Bitboard.WHITE) | board.getBitboard(Bishop.ENUM, Bitboard.BLACK)
+				| board.getBitboard(Queen.ENUM, Bitboard.WHITE) | board.getBitboard(Queen.ENUM, Bitboard.BLACK);
+		long straight = board.getBitboard(Rook.ENUM, Bitboard.WHITE) | board.getBitboard(Rook.ENUM, Bitboard.BLACK)
+				| board.getBitboard(Queen.ENUM, Bitboard.WHITE) | board.getBitboard(Queen.ENUM, Bitboard.BLACK);
+		long occ = board.getOccupied() ^ (1L << from);
+		long attackers = (board.attackersTo(square, Bitboard.WHITE, occ) | board.attackersTo(square, Bitboard.BLACK, occ)) & occ;
 		
-		Move[] moves = new Move[32];
 		int[] gain = new int[32];
 		int d = 0;
-		int onSquare = m.getPiece().getValue();
-		
-		gain[0] = m.getVictim().getValue();
-		moves[0] = m;
-		board.executeMove(m);
+		gain[0] = SEE_VALUE[PackedMove.victim(m)];
+		int onSquare = SEE_VALUE[PackedMove.piece(m)];
+		side = 1 - side;
 		
-		color = -color;
-		Piece attackDef = getSmallestAttacker(board, square, color);
-		
-		while (attackDef != null) {
+		while (true)
+		{
+			//Least valuable attacker of the side to recapture
+			long sideAttackers = attackers & board.getBitboard(0, side);
+			if (sideAttackers == 0)
+			{
+				break;
+			}
+			int pieceEnum = Pawn.ENUM;
+			long attacker = sideAttackers & board.getBitboard(pieceEnum, side);
+			while (attacker == 0)
+			{
+				pieceEnum++;
+				attacker = sideAttackers & board.getBitboard(pieceEnum, side);
+			}
+			
 			d++;
 			gain[d] = onSquare - gain[d-1];
 			
@@ -494,13 +817,20 @@ public class Evaluation
 				break;
 			}
 			
-			//Make the move (record it for undoing later)
-			moves[d] = new Move(attackDef, square);
-			board.executeMove(moves[d]);
+			//Take the attacker off the occupancy, and add the sliders it was blocking
+			occ ^= attacker & -attacker;
+			if (pieceEnum == Pawn.ENUM || pieceEnum == Bishop.ENUM || pieceEnum == Queen.ENUM)
+			{
+				attackers |= Bitboard.bishopAttacks(square, occ) & diagonal;
+			}
+			if (pieceEnum == Rook.ENUM || pieceEnum == Queen.ENUM)
+			{
+				attackers |= Bitboard.rookAttacks(square, occ) & straight;
+			}
+			attackers &= occ;
 			
-			color = -color;
-			onSquare = attackDef.getValue();
-			attackDef = getSmallestAttacker(board, square, color);
+			side = 1 - side;
+			onSquare = SEE_VALUE[pieceEnum];
 		}
 		
 		//Propagate the scores down to depth = 0
@@ -509,11 +839,6 @@ public class Evaluation
 			//Thus the opposite color gains (- max of these two values, b/c opponent always pick best)
 			gain[i-1] = -Math.max(-gain[i-1], gain[i]);
 		}
-
-		//Undo the moves
-		for (int i=d;i>=0;i--) {
-			board.undoMove(moves[i]);
-		}
 		
 		return gain[0];
 	}
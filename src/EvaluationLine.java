@@ -6,10 +6,10 @@
  */
 public class EvaluationLine
 {
-	public Move bestMove;
+	public int bestMove; //Packed move
 	public EvaluationLine next;
 	public int special; //0 - None, 1 - PV, 2 - UB, 3 - LB
-	public EvaluationLine(Move bestMove)
+	public EvaluationLine(int bestMove)
 	{
 		this.bestMove = bestMove;
 		this.next = null;
@@ -22,8 +22,8 @@ public class EvaluationLine
 		EvaluationLine currentLine = this;
 		while (currentLine.next != null)
 		{
-			if (currentLine.bestMove != null) {
-				out += (currentLine.bestMove.toStandardNotation()) + " ";
+			if (currentLine.bestMove != PackedMove.NONE) {
+				out += (PackedMove.toStandardNotation(currentLine.bestMove)) + " ";
 			}
 			currentLine = currentLine.next;
 			
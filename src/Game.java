@@ -163,14 +163,116 @@ public class Game
 			Piece pawn = new Pawn(Color.WHITE, "white_pawn.gif");
 			pawn.putSelfInGrid(board, new Location(whitePawnRow, i));
 		}
+		board.refreshCastlingRights();
 
 	}
+	
+	/**
+	 * Sets up the chess board from a position in Forsyth-Edwards Notation
+	 * (the en passant square and move counters are ignored)
+	 * 
+	 * @param board The current active board (empty)
+	 * @param fen The position
+	 */
+	public static void setupBoard(Board board, String fen)
+	{
+		String[] fields = fen.trim().split("\\s+");
+		String[] ranks = fields[0].split("/");
+		for (int i = 0; i < 8; i++)
+		{
+			int file = 0;
+			for (char ch : ranks[i].toCharArray())
+			{
+				if (Character.isDigit(ch))
+				{
+					file += ch - '0';
+					continue;
+				}
+				Color color = Character.isUpperCase(ch) ? Color.WHITE : Color.BLACK;
+				int pieceEnum = "pnbrqk".indexOf(Character.toLowerCase(ch)) + 1;
+				createPiece(pieceEnum, color).putSelfInGrid(board, fenLocation(8 - i, file));
+				file++;
+			}
+		}
+		
+		//Castling rights (a piece that lost its rights is treated as having moved)
+		String rights = fields.length > 2 ? fields[2] : "-";
+		for (int c = 0; c < 2; c++)
+		{
+			Color color = c == 0 ? Color.WHITE : Color.BLACK;
+			int backRank = c == 0 ? 1 : 8;
+			King king = board.getKing(color);
+			if (!king.getLocation().equals(fenLocation(backRank, 4)))
+			{
+				king.setMoved(true);
+			}
+			for (Piece rook : board.getPiecesOfType(Rook.ENUM, color))
+			{
+				char right;
+				if (rook.getLocation().equals(fenLocation(backRank, 0)))
+				{
+					right = 'q';
+				}
+				else if (rook.getLocation().equals(fenLocation(backRank, 7)))
+				{
+					right = 'k';
+				}
+				else
+				{
+					rook.setMoved(true);
+					continue;
+				}
+				rook.setMoved(rights.indexOf(c == 0 ? Character.toUpperCase(right) : right) < 0);
+			}
+		}
+		
+		board.setSideToMove(fields.length > 1 && fields[1].equals("b") ? Color.BLACK : Color.WHITE);
+		board.refreshCastlingRights();
+	}
+	
+	/**
+	 * Returns the board location of a rank (1-8) and file (0-7, a-h)
+	 */
+	private static Location fenLocation(int rank, int file)
+	{
+		int row = NEAR_COLOR.equals(Color.WHITE) ? 8 - rank : rank - 1;
+		int col = NEAR_COLOR.equals(Color.WHITE) ? file : 7 - file;
+		return new Location(row, col);
+	}
+	
+	/**
+	 * Creates a piece of a type
+	 * 
+	 * @param pieceEnum The enum of the piece
+	 * @param color The color of the piece
+	 * @return The new piece
+	 */
+	public static Piece createPiece(int pieceEnum, Color color)
+	{
+		String prefix = color.equals(Color.WHITE) ? "white_" : "black_";
+		switch (pieceEnum)
+		{
+			case Pawn.ENUM:
+				return new Pawn(color, prefix + "pawn.gif");
+			case Knight.ENUM:
+				return new Knight(color, prefix + "knight.gif");
+			case Bishop.ENUM:
+				return new Bishop(color, prefix + "bishop.gif");
+			case Rook.ENUM:
+				return new Rook(color, prefix + "rook.gif");
+			case Queen.ENUM:
+				return new Queen(color, prefix + "queen.gif");
+			default:
+				return new King(color, prefix + "king.gif");
+		}
+	}
 
 	public static void main(String args[]) throws IOException, InterruptedException
 	{
 		//Load state table for Smart Player algorithms
 		//Compression.clearFile(); //Uncomment if clear file
 		Compression.setup();
+		//Evaluation.setNetwork(NnueNetwork.load(NnueNetwork.NETWORK_FILE)); //Uncomment to evaluate with a trained network
 
 		//Load shut down hook
 		Runtime.getRuntime().addShutdownHook(new CompressionShutdownHook());
@@ -185,6 +287,7 @@ public class Game
 			 * Smart Player constructor
 			 * 1. No extra args (defaults to iterativeDeepening, playTime=6000)
 			 * 2. playDepth, iterativeDeepening?, playTime
+			 * 3. playDepth, iterativeDeepening?, playTime, searchThreads (Lazy SMP)
 			 */
 			SmartPlayerNegamax other = new SmartPlayerNegamax(board, "Walter Nernst", Color.BLACK, 2);
 			SmartPlayerNegamax other2 = new SmartPlayerNegamax(board, "Walter White", Color.WHITE, 2);
@@ -51,7 +51,8 @@ public class King extends Piece
 		if (board == null) {
 			System.out.println(this.getLocation());
 		}
-		return board.isAttacked(getLocation(), Board.oppositeColor(getColor()));
+		int side = Bitboard.side(getColor());
+		return board.attackersTo(Bitboard.square(getLocation()), 1 - side, board.getOccupied()) != 0;
 	}
 	
 	/**
@@ -76,19 +77,7 @@ public class King extends Piece
 	 */
 	public boolean inCheckmate()
 	{
-		Board board = getBoard();
-		ArrayList<Move> moves = board.allMoves(getColor());
-		for (Move m : moves)
-		{
-			board.executeMove(m);
-			if (!inCheck())
-			{
-				board.undoMove(m);
-				return false;
-			}
-			board.undoMove(m);
-		}
-		return inCheck();
+		return inCheck() && getBoard().allMoves(getColor()).isEmpty();
 	}
 	
 	/**
@@ -97,18 +86,6 @@ public class King extends Piece
 	 */
 	public boolean inStalemate()
 	{
-		Board board = getBoard();
-		ArrayList<Move> moves = board.allMoves(getColor());
-		for (Move m : moves)
-		{
-			board.executeMove(m);
-			if (!inCheck())
-			{
-				board.undoMove(m);
-				return false;
-			}
-			board.undoMove(m);
-		}
-		return !inCheck();
+		return !inCheck() && getBoard().allMoves(getColor()).isEmpty();
 	}
 }
@@ -0,0 +1,188 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A persistent table of learned states kept in a memory-mapped file. Records are fixed-size and
+ * probed in place, so opening the store takes no time and the table never has to be loaded on-heap
+ * (the operating system pages in only the parts that are used).
+ *
+ * The file holds a two-long header (magic number, number of records) followed by the records, each
+ * two longs in the same layout as TranspositionTable (key XOR data word, data word), in buckets of
+ * four. Unlike the search table, entries don't age: the deepest search of a state is kept.
+ */
+public class MappedStateStore
+{
+	private static final long MAGIC = 0x4348455353545431L; //"CHESSTT1"
+	private static final int HEADER_LONGS = 2;
+	private static final int BUCKET_SIZE = 4;
+	private static final int MAX_RECORDS = 1 << 26; //Keeps the file within one mapping (1 GB)
+
+	private final RandomAccessFile file;
+	private final MappedByteBuffer buffer;
+	private final LongBuffer records;
+	private final int capacity;
+	private final int bucketMask;
+
+	/**
+	 * Opens a store, creating it if the file doesn't exist
+	 *
+	 * @param fileName The store file
+	 * @param megabytes The size of a new store (an existing store keeps its size)
+	 * @throws IOException If the file can't be mapped or isn't a state store
+	 */
+	public MappedStateStore(String fileName, int megabytes) throws IOException
+	{
+		file = new RandomAccessFile(fileName, "rw");
+		FileChannel channel = file.getChannel();
+		boolean created = channel.size() == 0;
+		if (created)
+		{
+			long records = Math.max(BUCKET_SIZE, megabytes * 1024L * 1024L / 16);
+			capacity = Integer.highestOneBit((int) Math.min(records, MAX_RECORDS));
+		}
+		else
+		{
+			ByteBuffer header = ByteBuffer.allocate(HEADER_LONGS * 8);
+			channel.read(header, 0);
+			header.flip();
+			if (header.remaining() < HEADER_LONGS * 8 || header.getLong() != MAGIC)
+			{
+				file.close();
+				throw new IOException(fileName + " is not a state store");
+			}
+			capacity = (int) header.getLong();
+		}
+		bucketMask = (capacity - 1) & ~(BUCKET_SIZE - 1);
+
+		//Mapping past the end of the file grows it (sparse, so untouched records take no disk space)
+		buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (HEADER_LONGS + 2L * capacity) * 8);
+		records = buffer.asLongBuffer();
+		if (created)
+		{
+			records.put(0, MAGIC);
+			records.put(1, capacity);
+		}
+	}
+
+	/**
+	 * Looks up a state
+	 * @param key The Zobrist key of the state
+	 * @return The packed data word (read with the TranspositionTable accessors), or TranspositionTable.MISS
+	 */
+	public long probe(long key)
+	{
+		int bucket = (int) key & bucketMask;
+		for (int i=bucket;i<bucket+BUCKET_SIZE;i++)
+		{
+			int index = HEADER_LONGS + 2 * i;
+			long entry = records.get(index + 1);
+			if (entry != TranspositionTable.MISS && (records.get(index) ^ entry) == key)
+			{
+				return entry;
+			}
+		}
+		return TranspositionTable.MISS;
+	}
+
+	/**
+	 * Stores a state, keeping the deeper search if the state is already stored. Otherwise takes an
+	 * empty record of the bucket, or replaces the shallowest one
+	 *
+	 * @param key The Zobrist key of the state
+	 * @param entry The packed data word
+	 */
+	public void store(long key, long entry)
+	{
+		int bucket = (int) key & bucketMask;
+		int replace = bucket;
+		int replaceDepth = Integer.MAX_VALUE;
+		for (int i=bucket;i<bucket+BUCKET_SIZE;i++)
+		{
+			int index = HEADER_LONGS + 2 * i;
+			long old = records.get(index + 1);
+			if (old == TranspositionTable.MISS)
+			{
+				if (replaceDepth > Integer.MIN_VALUE)
+				{
+					replace = i;
+					replaceDepth = Integer.MIN_VALUE;
+				}
+				continue;
+			}
+			if ((records.get(index) ^ old) == key)
+			{
+				if (TranspositionTable.depth(old) > TranspositionTable.depth(entry))
+				{
+					return;
+				}
+				replace = i;
+				break;
+			}
+			if (TranspositionTable.depth(old) < replaceDepth)
+			{
+				replace = i;
+				replaceDepth = TranspositionTable.depth(old);
+			}
+		}
+		int index = HEADER_LONGS + 2 * replace;
+		records.put(index, key ^ entry);
+		records.put(index + 1, entry);
+	}
+
+	/**
+	 * Returns the number of records the store can hold
+	 */
+	public int capacity()
+	{
+		return capacity;
+	}
+
+	/**
+	 * Counts the used records (walks the whole file)
+	 */
+	public int countEntries()
+	{
+		int count = 0;
+		for (int i=0;i<capacity;i++)
+		{
+			if (records.get(HEADER_LONGS + 2 * i + 1) != TranspositionTable.MISS)
+			{
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Empties the store
+	 */
+	public void clear()
+	{
+		for (int i=HEADER_LONGS;i<HEADER_LONGS + 2 * capacity;i++)
+		{
+			records.put(i, 0L);
+		}
+	}
+
+	/**
+	 * Writes changed records out to the file
+	 */
+	public void force()
+	{
+		buffer.force();
+	}
+
+	/**
+	 * Writes changed records out and closes the file
+	 * @throws IOException
+	 */
+	public void close() throws IOException
+	{
+		buffer.force();
+		file.close();
+	}
+}
@@ -0,0 +1,146 @@
+/**
+ * The first layer of an NnueNetwork for one board: the feature weights summed over every piece on the
+ * board, from each side's perspective. The board hands it every piece it puts or removes, so a move only
+ * adds and takes away the weights of the few features it changes (undoing a move takes them back the same
+ * way).
+ *
+ * A perspective's features are relative to its own king, so when that king moves the perspective is only
+ * marked dirty, and is summed again from the bitboards the next time the board is evaluated.
+ * Not thread-safe: belongs to one board, which is searched by one thread.
+ */
+public class NnueAccumulator
+{
+	private final NnueNetwork network;
+	private final int size;
+	private final short[][] values; //Per perspective (0 - White, 1 - Black)
+	private final int[] kingSquares; //The king square each perspective's values are relative to
+	private final boolean[] dirty; //Perspective needs to be summed again before its values are used
+
+	//Buffers of the layers after the accumulator, so an evaluation allocates nothing
+	final int[] input;
+	final int[] hidden2;
+	final int[] hidden3;
+
+	/**
+	 * @param network The network whose first layer this is (starts dirty, so it's summed when first used)
+	 */
+	public NnueAccumulator(NnueNetwork network)
+	{
+		this.network = network;
+		size = network.getAccumulatorSize();
+		values = new short[2][size];
+		kingSquares = new int[2];
+		dirty = new boolean[] {true, true};
+		input = new int[2 * size];
+		hidden2 = new int[network.getL2()];
+		hidden3 = new int[network.getL3()];
+	}
+
+	public NnueNetwork getNetwork()
+	{
+		return network;
+	}
+
+	/**
+	 * Returns the values of a perspective (only up to date after update)
+	 * @param perspective The side (Bitboard.WHITE or Bitboard.BLACK)
+	 */
+	public short[] values(int perspective)
+	{
+		return values[perspective];
+	}
+
+	/**
+	 * Adds or takes away the features of a piece put on or removed from a square
+	 *
+	 * @param side The side of the piece
+	 * @param pieceEnum The enum of the piece
+	 * @param sq The square
+	 * @param add True if the piece was put on the square, false if removed
+	 */
+	public void toggle(int side, int pieceEnum, int sq, boolean add)
+	{
+		if (pieceEnum == King.ENUM)
+		{
+			dirty[side] = true;
+			return;
+		}
+		for (int perspective=0;perspective<2;perspective++)
+		{
+			if (dirty[perspective])
+			{
+				continue;
+			}
+			short[] acc = values[perspective];
+			short[] weights = network.featureWeights;
+			int offset = NnueNetwork.feature(perspective, kingSquares[perspective], side, pieceEnum, sq) * size;
+			if (add)
+			{
+				for (int i=0;i<size;i++)
+				{
+					acc[i] += weights[offset + i];
+				}
+			}
+			else
+			{
+				for (int i=0;i<size;i++)
+				{
+					acc[i] -= weights[offset + i];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sums the dirty perspectives again from the board
+	 * @param board The board
+	 */
+	public void update(Board board)
+	{
+		for (int perspective=0;perspective<2;perspective++)
+		{
+			if (dirty[perspective])
+			{
+				refresh(board, perspective);
+			}
+		}
+	}
+
+	/**
+	 * Sums a perspective from scratch: the biases plus the feature weights of every piece but the kings
+	 *
+	 * @param board The board
+	 * @param perspective The side
+	 */
+	public void refresh(Board board, int perspective)
+	{
+		long king = board.getBitboard(King.ENUM, perspective);
+		if (king == 0)
+		{
+			return; //Stays dirty until the board has a king
+		}
+		int kingSquare = Long.numberOfTrailingZeros(king);
+		short[] acc = values[perspective];
+		short[] weights = network.featureWeights;
+		System.arraycopy(network.featureBiases, 0, acc, 0, size);
+		for (int side=0;side<2;side++)
+		{
+			for (int pieceEnum=Pawn.ENUM;pieceEnum<=Queen.ENUM;pieceEnum++)
+			{
+				long pieces = board.getBitboard(pieceEnum, side);
+				while (pieces != 0)
+				{
+					int sq = Long.numberOfTrailingZeros(pieces);
+					pieces &= pieces - 1;
+					int offset = NnueNetwork.feature(perspective, kingSquare, side, pieceEnum, sq) * size;
+					for (int i=0;i<size;i++)
+					{
+						acc[i] += weights[offset + i];
+					}
+				}
+			}
+		}
+		kingSquares[perspective] = kingSquare;
+		dirty[perspective] = false;
+	}
+}
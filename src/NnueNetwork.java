@@ -0,0 +1,284 @@
+import java.awt.Color;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * An efficiently updatable neural network (NNUE) evaluation, an alternative to the hand-written terms in
+ * Evaluation. The weights are quantised and shared (read-only) by every search thread.
+ *
+ * Input layer (HalfKP): for each side's perspective, one feature per (own king square, piece, square) of
+ * every piece except the kings, with the board flipped for black so both perspectives see themselves at
+ * the bottom. Squares are numbered a8 = 0 ... h1 = 63 whatever Game.NEAR_COLOR is (like PositionCodec),
+ * so a network works with either board layout. The first layer (int16 weights) sums into an accumulator of L1 values per perspective, which
+ * each Board keeps up to date as pieces are put and removed (see NnueAccumulator), so an evaluation only
+ * runs the small layers after it:
+ *
+ * [side to move, other side] accumulators (2*L1, clipped to 0-127) -> L2 -> L3 (int8 weights, clipped
+ * to 0-127) -> output / OUTPUT_SCALE = centipawns for the side to move
+ *
+ * File format (big-endian): magic number, L1, L2, L3, then the feature weights [feature][L1], feature
+ * biases [L1] (int16), L2 weights [L2][2*L1] (int8), L2 biases (int32), L3 weights [L3][L2] (int8),
+ * L3 biases (int32), output weights [L3] (int8) and the output bias (int32).
+ */
+public class NnueNetwork
+{
+	public static final String NETWORK_FILE = "chess.nnue";
+
+	public static final int FEATURES = 64 * 10 * 64; //King square, piece (5 types, 2 colors), piece square
+
+	private static final long MAGIC = 0x43484553534E4E31L; //"CHESSNN1"
+	private static final int CLIP = 127; //Largest activation (fits in the int8 weights' 0-127 inputs)
+	private static final int WEIGHT_SHIFT = 6; //Hidden layer int8 weights are fixed point, 1.0 = 64
+	private static final int OUTPUT_SCALE = 16;
+
+	//XORed with a board square to give the a8 = 0 square (the board is mirrored when black is near)
+	private static final int ORIENTATION = Game.NEAR_COLOR.equals(Color.BLACK) ? 63 : 0;
+
+	private final int l1, l2, l3;
+	final short[] featureWeights; //[feature * L1 + i] (read by NnueAccumulator)
+	final short[] featureBiases;
+	private final int[] l2Columns; //L2 weights by input: [i * L2 + j] (the file holds them by output)
+	private final int[] l2Biases;
+	private final byte[] l3Weights; //[j * L2 + i]
+	private final int[] l3Biases;
+	private final byte[] outputWeights;
+	private final int outputBias;
+
+	private NnueNetwork(int l1, int l2, int l3, ByteBuffer weights)
+	{
+		this.l1 = l1;
+		this.l2 = l2;
+		this.l3 = l3;
+		featureWeights = new short[FEATURES * l1];
+		featureBiases = new short[l1];
+		l2Columns = new int[2 * l1 * l2];
+		l2Biases = new int[l2];
+		l3Weights = new byte[l3 * l2];
+		l3Biases = new int[l3];
+		outputWeights = new byte[l3];
+
+		weights.asShortBuffer().get(featureWeights);
+		weights.position(weights.position() + 2 * featureWeights.length);
+		weights.asShortBuffer().get(featureBiases);
+		weights.position(weights.position() + 2 * featureBiases.length);
+		for (int j=0;j<l2;j++)
+		{
+			for (int i=0;i<2 * l1;i++)
+			{
+				l2Columns[i * l2 + j] = weights.get();
+			}
+		}
+		weights.asIntBuffer().get(l2Biases);
+		weights.position(weights.position() + 4 * l2Biases.length);
+		weights.get(l3Weights);
+		weights.asIntBuffer().get(l3Biases);
+		weights.position(weights.position() + 4 * l3Biases.length);
+		weights.get(outputWeights);
+		outputBias = weights.getInt();
+	}
+
+	/**
+	 * Loads a network from a weights file
+	 *
+	 * @param fileName The weights file
+	 * @return The network
+	 * @throws IOException If the file can't be read or isn't a complete network
+	 */
+	public static NnueNetwork load(String fileName) throws IOException
+	{
+		ByteBuffer weights = ByteBuffer.wrap(Files.readAllBytes(Paths.get(fileName)));
+		if (weights.remaining() < 20 || weights.getLong() != MAGIC)
+		{
+			throw new IOException(fileName + " is not a network");
+		}
+		int l1 = weights.getInt();
+		int l2 = weights.getInt();
+		int l3 = weights.getInt();
+		if (l1 <= 0 || l2 <= 0 || l3 <= 0 || weights.remaining() != weightBytes(l1, l2, l3))
+		{
+			throw new IOException(fileName + " doesn't hold a complete " + l1 + "x" + l2 + "x" + l3 + " network");
+		}
+		return new NnueNetwork(l1, l2, l3, weights);
+	}
+
+	/**
+	 * Writes a network with random (small) weights, in place of a trained one, to benchmark and test with
+	 *
+	 * @param fileName The weights file
+	 * @param l1 The size of each perspective's accumulator
+	 * @param l2 The size of the first hidden layer
+	 * @param l3 The size of the second hidden layer
+	 * @param seed The random seed
+	 * @throws IOException
+	 */
+	public static void writeRandom(String fileName, int l1, int l2, int l3, long seed) throws IOException
+	{
+		Random rng = new Random(seed);
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName), 1 << 16)))
+		{
+			out.writeLong(MAGIC);
+			out.writeInt(l1);
+			out.writeInt(l2);
+			out.writeInt(l3);
+			for (int i=0;i<FEATURES * l1;i++)
+			{
+				out.writeShort(rng.nextInt(33) - 16);
+			}
+			for (int i=0;i<l1;i++)
+			{
+				out.writeShort(rng.nextInt(64));
+			}
+			for (int i=0;i<l2 * 2 * l1;i++)
+			{
+				out.writeByte(rng.nextInt(17) - 8);
+			}
+			for (int i=0;i<l2;i++)
+			{
+				out.writeInt(rng.nextInt(1024) - 512);
+			}
+			for (int i=0;i<l3 * l2;i++)
+			{
+				out.writeByte(rng.nextInt(33) - 16);
+			}
+			for (int i=0;i<l3;i++)
+			{
+				out.writeInt(rng.nextInt(1024) - 512);
+			}
+			for (int i=0;i<l3;i++)
+			{
+				out.writeByte(rng.nextInt(33) - 16);
+			}
+			out.writeInt(0);
+		}
+	}
+
+	//Returns the number of bytes of the weights after the header of an l1 x l2 x l3 network
+	private static long weightBytes(int l1, int l2, int l3)
+	{
+		return 2L * FEATURES * l1 + 2L * l1 + (long) l2 * 2 * l1 + 4L * l2 + (long) l3 * l2 + 4L * l3 + l3 + 4;
+	}
+
+	// Returns the size of each perspective's accumulator
+	public int getAccumulatorSize()
+	{
+		return l1;
+	}
+
+	// Returns the size of the first hidden layer
+	public int getL2()
+	{
+		return l2;
+	}
+
+	// Returns the size of the second hidden layer
+	public int getL3()
+	{
+		return l3;
+	}
+
+	/**
+	 * Returns the input feature of a piece (not a king) from one side's perspective
+	 *
+	 * @param perspective The side whose perspective it is
+	 * @param kingSquare The (board) square of that side's king
+	 * @param side The side of the piece
+	 * @param pieceEnum The enum of the piece (Pawn through Queen)
+	 * @param sq The (board) square of the piece
+	 * @return The feature index
+	 */
+	public static int feature(int perspective, int kingSquare, int side, int pieceEnum, int sq)
+	{
+		int flip = ORIENTATION ^ (perspective == Bitboard.WHITE ? 0 : 56);
+		int piece = (pieceEnum - 1) * 2 + (side == perspective ? 0 : 1);
+		return ((kingSquare ^ flip) * 10 + piece) * 64 + (sq ^ flip);
+	}
+
+	/**
+	 * Evaluates a board, attaching an accumulator to it the first time
+	 *
+	 * @param board The board
+	 * @return The score (centipawns), from white's view like Evaluation.evaluate
+	 */
+	public int evaluate(Board board)
+	{
+		NnueAccumulator accumulator = board.getAccumulator();
+		if (accumulator == null || accumulator.getNetwork() != this)
+		{
+			accumulator = new NnueAccumulator(this);
+			board.setAccumulator(accumulator);
+		}
+		accumulator.update(board);
+
+		int side = Bitboard.side(board.getSideToMove());
+		int score = propagate(accumulator.values(side), accumulator.values(1 - side), accumulator.input, accumulator.hidden2, accumulator.hidden3);
+		return side == Bitboard.WHITE ? score : -score;
+	}
+
+	/**
+	 * Runs the layers after the accumulators
+	 *
+	 * @param us The accumulator of the side to move
+	 * @param them The accumulator of the other side
+	 * @param input Buffer for both accumulators clipped (2*L1)
+	 * @param hidden2 Buffer for the first hidden layer (L2)
+	 * @param hidden3 Buffer for the second hidden layer (L3)
+	 * @return The score for the side to move
+	 */
+	private int propagate(short[] us, short[] them, int[] input, int[] hidden2, int[] hidden3)
+	{
+		for (int i=0;i<l1;i++)
+		{
+			input[i] = clip(us[i]);
+			input[l1 + i] = clip(them[i]);
+		}
+		
+		//Adds the weights of each active input to every output at once (the clipped inputs are mostly 0,
+		//so most of them are skipped, and the loop over the outputs runs without a sum to reduce)
+		System.arraycopy(l2Biases, 0, hidden2, 0, l2);
+		for (int i=0;i<2 * l1;i++)
+		{
+			int activation = input[i];
+			if (activation == 0)
+			{
+				continue;
+			}
+			int column = i * l2;
+			for (int j=0;j<l2;j++)
+			{
+				hidden2[j] += activation * l2Columns[column + j];
+			}
+		}
+		for (int j=0;j<l2;j++)
+		{
+			hidden2[j] = clip(hidden2[j] >> WEIGHT_SHIFT);
+		}
+		for (int j=0;j<l3;j++)
+		{
+			int sum = l3Biases[j];
+			int row = j * l2;
+			for (int i=0;i<l2;i++)
+			{
+				sum += hidden2[i] * l3Weights[row + i];
+			}
+			hidden3[j] = clip(sum >> WEIGHT_SHIFT);
+		}
+		int output = outputBias;
+		for (int i=0;i<l3;i++)
+		{
+			output += hidden3[i] * outputWeights[i];
+		}
+		return output / OUTPUT_SCALE;
+	}
+
+	//Clipped ReLU
+	private static int clip(int value)
+	{
+		return Math.max(0, Math.min(CLIP, value));
+	}
+}
@@ -0,0 +1,99 @@
+/**
+ * Encodes a move into a single int so move lists can be kept in primitive arrays during search.
+ *
+ * Bits 0-5: source square, 6-11: destination square (square = row * 8 + col),
+ * 12-14: enum of the moving piece, 15-17: enum of the captured piece (0 if none),
+ * 18: castle flag, 19: promotion flag. 0 is never a valid move and stands for "no move".
+ */
+public final class PackedMove
+{
+	public static final int NONE = 0;
+	public static final int CASTLE = 1 << 18;
+	public static final int PROMOTION = 1 << 19;
+
+	private static final String[] PIECE_NOTATION = { "", "", "N", "B", "R", "Q", "K" };
+
+	private PackedMove()
+	{
+	}
+
+	/**
+	 * Packs the parts of a move into an int
+	 *
+	 * @param from The source square
+	 * @param to The destination square
+	 * @param pieceEnum The enum of the moving piece
+	 * @param victimEnum The enum of the captured piece (0 if none)
+	 * @param flags CASTLE, PROMOTION or 0
+	 * @return The packed move
+	 */
+	public static int encode(int from, int to, int pieceEnum, int victimEnum, int flags)
+	{
+		return from | to << 6 | pieceEnum << 12 | victimEnum << 15 | flags;
+	}
+
+	// Returns the source square of the move
+	public static int from(int move)
+	{
+		return move & 63;
+	}
+
+	// Returns the destination square of the move
+	public static int to(int move)
+	{
+		return (move >>> 6) & 63;
+	}
+
+	// Returns the enum of the moving piece
+	public static int piece(int move)
+	{
+		return (move >>> 12) & 7;
+	}
+
+	// Returns the enum of the captured piece, 0 if the move isn't a capture
+	public static int victim(int move)
+	{
+		return (move >>> 15) & 7;
+	}
+
+	// Returns if the move is a capture
+	public static boolean isCapture(int move)
+	{
+		return victim(move) != 0;
+	}
+
+	// Returns if the move is a castle
+	public static boolean isCastle(int move)
+	{
+		return (move & CASTLE) != 0;
+	}
+
+	// Returns if the move is a promotion
+	public static boolean isPromotion(int move)
+	{
+		return (move & PROMOTION) != 0;
+	}
+
+	// Returns the type of castle (1 - toward column 7, 2 - toward column 0), same as CastleMove
+	public static int castleType(int move)
+	{
+		return to(move) > from(move) ? 1 : 2;
+	}
+
+	// Returns the standard notation of the move (same format as Move.toStandardNotation)
+	public static String toStandardNotation(int move)
+	{
+		if (isCastle(move))
+		{
+			return castleType(move) == 1 ? "O-O" : "O-O-O";
+		}
+		String fromCoord = "(" + Bitboard.location(from(move)).toStandardNotation() + ")";
+		String toCoord = Bitboard.location(to(move)).toStandardNotation();
+		String notation = fromCoord + PIECE_NOTATION[piece(move)] + (isCapture(move) ? "x" : "") + toCoord;
+		if (isPromotion(move))
+		{
+			notation += "=Q";
+		}
+		return notation;
+	}
+}
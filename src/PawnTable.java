@@ -0,0 +1,113 @@
+import java.util.Arrays;
+
+/**
+ * A fixed-size, direct-mapped cache of pawn structure evaluations, keyed by the board's pawn key.
+ * Pawns move rarely, so almost every evaluation finds its pawn structure here.
+ *
+ * Each entry holds the packed structure score (from white's view) and the pawn masks the rest of the
+ * evaluation works from: the passed pawns of each side, and the files each side has pawns on.
+ * An entry is overwritten by any other pawn structure mapping to it. Not thread-safe: every search
+ * thread has its own table.
+ */
+public class PawnTable
+{
+	private final long[] keys;
+	private final int[] scores;
+	private final long[] passed; //White passed pawns, black passed pawns
+	private final int[] files; //White files | black files << 8
+	private final int mask;
+	private long hits = 0;
+	private long misses = 0;
+
+	/**
+	 * @param entries The number of entries, rounded down to a power of two
+	 */
+	public PawnTable(int entries)
+	{
+		int size = Integer.highestOneBit(Math.max(1, entries));
+		keys = new long[size];
+		scores = new int[size];
+		passed = new long[2 * size];
+		files = new int[size];
+		mask = size - 1;
+	}
+
+	/**
+	 * Looks up a pawn structure. (An empty entry has key 0 and holds nothing, which is the right entry
+	 * for a board without pawns)
+	 *
+	 * @param pawnKey The pawn key of the board
+	 * @return The index of its entry, or -1 if not cached
+	 */
+	public int probe(long pawnKey)
+	{
+		int index = (int) pawnKey & mask;
+		if (keys[index] == pawnKey)
+		{
+			hits++;
+			return index;
+		}
+		misses++;
+		return -1;
+	}
+
+	/**
+	 * Empties the table (the hit and miss counts are kept)
+	 */
+	public void clear()
+	{
+		Arrays.fill(keys, 0L);
+		Arrays.fill(scores, 0);
+		Arrays.fill(passed, 0L);
+		Arrays.fill(files, 0);
+	}
+
+	/**
+	 * Caches a pawn structure
+	 *
+	 * @param pawnKey The pawn key of the board
+	 * @param score The packed structure score
+	 * @param whitePassed The passed white pawns
+	 * @param blackPassed The passed black pawns
+	 * @param fileMask The files with white pawns | the files with black pawns << 8
+	 * @return The index of its entry
+	 */
+	public int store(long pawnKey, int score, long whitePassed, long blackPassed, int fileMask)
+	{
+		int index = (int) pawnKey & mask;
+		keys[index] = pawnKey;
+		scores[index] = score;
+		passed[2 * index] = whitePassed;
+		passed[2 * index + 1] = blackPassed;
+		files[index] = fileMask;
+		return index;
+	}
+
+	// Returns the packed structure score of an entry
+	public int score(int index)
+	{
+		return scores[index];
+	}
+
+	// Returns the passed pawns of a side in an entry
+	public long passed(int index, int side)
+	{
+		return passed[2 * index + side];
+	}
+
+	// Returns the files (bit per file) a side has pawns on in an entry
+	public int fileMask(int index, int side)
+	{
+		return (files[index] >>> (8 * side)) & 0xFF;
+	}
+
+	public long getHits()
+	{
+		return hits;
+	}
+
+	public long getMisses()
+	{
+		return misses;
+	}
+}
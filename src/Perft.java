@@ -0,0 +1,322 @@
+import java.awt.Color;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Counts the leaf nodes of the move tree to a fixed depth (performance test). Used to check move
+ * generation and execute/undo against known node counts, and as the benchmark for their speed.
+ *
+ * The engine has no en passant or underpromotion, so counts match the published ones only for
+ * positions/depths where those moves don't occur (e.g. the start position up to depth 4).
+ *
+ * The parallel mode splits the root and second-ply moves across a fork/join pool, with every pool
+ * thread searching on its own copy of the board.
+ *
+ * Usage: java Perft depth [-hash megabytes] [-fen "position"] [-threads n | -scaling]
+ */
+public class Perft
+{
+	private Board board;
+	private int[][] moveStack; //Packed moves generated at each ply
+
+	//Hash table of subtree counts (optional)
+	private long[] hashKeys;
+	private long[] hashCounts;
+	private int hashMask;
+	private long hashHits;
+
+	private long nodesSearched; //Leaf nodes counted by this instance (per thread in parallel mode)
+
+	public Perft(Board board, int maxDepth, int hashMegabytes)
+	{
+		this.board = board;
+		this.moveStack = new int[maxDepth + 1][Board.MAX_MOVES];
+		if (hashMegabytes > 0)
+		{
+			//Two longs per entry, rounded down to a power of two
+			int entries = Integer.highestOneBit((int) Math.min(hashMegabytes * 1024L * 1024L / 16, 1 << 30));
+			hashKeys = new long[entries];
+			hashCounts = new long[entries];
+			hashMask = entries - 1;
+		}
+	}
+
+	/**
+	 * Counts the leaf nodes below the current position
+	 *
+	 * @param depth The number of plies left
+	 * @param ply The number of plies from the root
+	 * @param color The color to move
+	 * @return The number of leaf nodes
+	 */
+	public long perft(int depth, int ply, Color color)
+	{
+		int[] moves = moveStack[ply];
+		int count = board.generateMoves(color, moves);
+
+		//Bulk counting: the moves at the last ply are the leaves
+		if (depth <= 1)
+		{
+			return depth == 1 ? count : 1;
+		}
+
+		long hashKey = 0;
+		if (hashKeys != null)
+		{
+			hashKey = board.getZobristKey() ^ (depth * 0x9E3779B97F4A7C15L);
+			int index = (int) hashKey & hashMask;
+			if (hashKeys[index] == hashKey)
+			{
+				hashHits++;
+				return hashCounts[index];
+			}
+		}
+
+		long nodes = 0;
+		Color opposite = Board.oppositeColor(color);
+		for (int i = 0; i < count; i++)
+		{
+			board.executeMove(moves[i]);
+			nodes += perft(depth - 1, ply + 1, opposite);
+			board.undoMove(moves[i]);
+		}
+
+		if (hashKeys != null)
+		{
+			int index = (int) hashKey & hashMask;
+			hashKeys[index] = hashKey;
+			hashCounts[index] = nodes;
+		}
+		return nodes;
+	}
+
+	/**
+	 * Runs perft from the current position, printing the count below each root move, the
+	 * total count and the speed
+	 *
+	 * @param depth The depth to search
+	 * @return The total number of leaf nodes
+	 */
+	public long divide(int depth)
+	{
+		DecimalFormat df = new DecimalFormat("###,###,###,###");
+		Color color = board.getSideToMove();
+		long timeStart = System.nanoTime();
+
+		int[] moves = moveStack[0];
+		int count = board.generateMoves(color, moves);
+		long total = 0;
+		for (int i = 0; i < count; i++)
+		{
+			board.executeMove(moves[i]);
+			long nodes = perft(depth - 1, 1, Board.oppositeColor(color));
+			board.undoMove(moves[i]);
+			total += nodes;
+			System.out.println(PackedMove.toStandardNotation(moves[i]) + ": " + nodes);
+		}
+
+		double seconds = (System.nanoTime() - timeStart) / 1e9;
+		System.out.println("----- Perft -----");
+		System.out.println("DEPTH: " + depth);
+		System.out.println("MOVES: " + count);
+		System.out.println("NODES: " + df.format(total));
+		System.out.println("TIME: " + seconds + "s");
+		System.out.println("NODES/SECOND: " + df.format(total / Math.max(seconds, 1e-9)));
+		if (hashKeys != null)
+		{
+			System.out.println("HASH ENTRIES: " + df.format(hashKeys.length) + " | HASH HITS: " + df.format(hashHits));
+		}
+		return total;
+	}
+
+	/**
+	 * Counts the leaf nodes below a line of moves from the root, on the calling pool thread's own
+	 * board. One task is made for each root move (or each pair of root and second-ply moves)
+	 */
+	private static class PerftTask extends RecursiveTask<Long>
+	{
+		private static final long serialVersionUID = 1L;
+
+		private ThreadLocal<Perft> workers;
+		private int[] line;
+		private int depth;
+
+		public PerftTask(ThreadLocal<Perft> workers, int[] line, int depth)
+		{
+			this.workers = workers;
+			this.line = line;
+			this.depth = depth;
+		}
+
+		protected Long compute()
+		{
+			Perft worker = workers.get();
+			Board board = worker.board;
+			for (int m : line)
+			{
+				board.executeMove(m);
+			}
+			long nodes = worker.perft(depth - line.length, line.length, board.getSideToMove());
+			for (int i = line.length - 1; i >= 0; i--)
+			{
+				board.undoMove(line[i]);
+			}
+			worker.nodesSearched += nodes;
+			return nodes;
+		}
+	}
+
+	/**
+	 * Runs perft from a position on a fork/join pool, printing the total count, the speed and the
+	 * nodes counted by each thread
+	 *
+	 * @param root The starting position (not modified)
+	 * @param depth The depth to search
+	 * @param threads The number of pool threads
+	 * @param hashMegabytes The size of each thread's own hash table (0 for none)
+	 * @return The time taken in seconds
+	 */
+	public static double parallelPerft(Board root, int depth, int threads, int hashMegabytes)
+	{
+		DecimalFormat df = new DecimalFormat("###,###,###,###");
+		long timeStart = System.nanoTime();
+
+		//Split the root moves, and the second-ply moves when deep enough to be worth it
+		List<PerftTask> tasks = new ArrayList<>();
+		ConcurrentLinkedQueue<Perft> registered = new ConcurrentLinkedQueue<>();
+		ThreadLocal<Perft> workers = ThreadLocal.withInitial(() -> {
+			Perft worker = new Perft(root.copy(), depth, hashMegabytes);
+			registered.add(worker);
+			return worker;
+		});
+		Board board = root.copy();
+		int[] rootMoves = new int[Board.MAX_MOVES];
+		int[] replies = new int[Board.MAX_MOVES];
+		int rootCount = board.generateMoves(board.getSideToMove(), rootMoves);
+		for (int i = 0; i < rootCount; i++)
+		{
+			if (depth < 3)
+			{
+				tasks.add(new PerftTask(workers, new int[] { rootMoves[i] }, depth));
+				continue;
+			}
+			board.executeMove(rootMoves[i]);
+			int replyCount = board.generateMoves(board.getSideToMove(), replies);
+			for (int j = 0; j < replyCount; j++)
+			{
+				tasks.add(new PerftTask(workers, new int[] { rootMoves[i], replies[j] }, depth));
+			}
+			board.undoMove(rootMoves[i]);
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		long total = pool.invoke(new RecursiveTask<Long>() {
+			protected Long compute()
+			{
+				long nodes = 0;
+				for (PerftTask task : invokeAll(tasks))
+				{
+					nodes += task.join();
+				}
+				return nodes;
+			}
+		});
+		pool.shutdown();
+
+		double seconds = (System.nanoTime() - timeStart) / 1e9;
+		System.out.println("----- Parallel Perft -----");
+		System.out.println("DEPTH: " + depth + " | THREADS: " + threads + " | TASKS: " + tasks.size());
+		System.out.println("NODES: " + df.format(total));
+		System.out.println("TIME: " + seconds + "s");
+		System.out.println("NODES/SECOND: " + df.format(total / Math.max(seconds, 1e-9)));
+		int t = 1;
+		for (Perft worker : registered)
+		{
+			System.out.println("THREAD " + t++ + ": " + df.format(worker.nodesSearched) + " nodes");
+		}
+		return seconds;
+	}
+
+	/**
+	 * Runs the parallel perft at 1, 2, 4 and 8 threads and prints the speedup and scaling efficiency
+	 * (speedup / threads) of each against the single thread run
+	 *
+	 * @param root The starting position (not modified)
+	 * @param depth The depth to search
+	 * @param hashMegabytes The size of each thread's own hash table (0 for none)
+	 */
+	public static void scaling(Board root, int depth, int hashMegabytes)
+	{
+		DecimalFormat pf = new DecimalFormat("##0.0");
+		int[] threadCounts = { 1, 2, 4, 8 };
+		double[] seconds = new double[threadCounts.length];
+		for (int i = 0; i < threadCounts.length; i++)
+		{
+			seconds[i] = parallelPerft(root, depth, threadCounts[i], hashMegabytes);
+			System.out.println();
+		}
+		System.out.println("----- Scaling (" + Runtime.getRuntime().availableProcessors() + " cores available) -----");
+		for (int i = 0; i < threadCounts.length; i++)
+		{
+			double speedup = seconds[0] / seconds[i];
+			System.out.println("THREADS: " + threadCounts[i]
+					+ " | TIME: " + seconds[i] + "s"
+					+ " | SPEEDUP: " + pf.format(speedup) + "x"
+					+ " | EFFICIENCY: " + pf.format(speedup / threadCounts[i] * 100) + "%");
+		}
+	}
+
+	public static void main(String[] args)
+	{
+		int depth = Integer.parseInt(args[0]);
+		int hashMegabytes = 0;
+		int threads = 0;
+		boolean scaling = false;
+		String fen = null;
+		for (int i = 1; i < args.length; i++)
+		{
+			if (args[i].equals("-hash"))
+			{
+				hashMegabytes = Integer.parseInt(args[i + 1]);
+			}
+			else if (args[i].equals("-fen"))
+			{
+				fen = args[i + 1];
+			}
+			else if (args[i].equals("-threads"))
+			{
+				threads = Integer.parseInt(args[i + 1]);
+			}
+			else if (args[i].equals("-scaling"))
+			{
+				scaling = true;
+			}
+		}
+
+		Board board = new Board();
+		if (fen == null)
+		{
+			Game.setupBoard(board);
+		}
+		else
+		{
+			Game.setupBoard(board, fen);
+		}
+		if (scaling)
+		{
+			scaling(board, depth, hashMegabytes);
+		}
+		else if (threads > 0)
+		{
+			parallelPerft(board, depth, threads, hashMegabytes);
+		}
+		else
+		{
+			new Perft(board, depth, hashMegabytes).divide(depth);
+		}
+	}
+}
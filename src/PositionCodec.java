@@ -0,0 +1,191 @@
+import java.awt.Color;
+
+/**
+ * Encodes a position into a fixed 24 byte record (in place of the old base-90 state strings), for
+ * exchanging whole positions. The state table, snapshot, log and learned state store don't use it:
+ * they only ever look states up by Zobrist key, which is smaller and already computed. Checked and
+ * timed by Benchmark codec.
+ *
+ * Bytes 0-7: occupancy bitboard (big-endian), bytes 8-23: one 4 bit code per occupied square in
+ * square order (low nibble first). Codes 1-6 are the pieces (by enum) of the side to move, 7-12 the
+ * pieces of the other side, 13/14 a rook of the side to move/other side that can still castle.
+ *
+ * Records are normalized so the side to move is always white, playing up from rank 1 (squares are
+ * numbered like the Zobrist keys, with black positions flipped vertically). A position and its color
+ * mirror share one record, so the side to move isn't stored; it's given back when decoding.
+ */
+public final class PositionCodec
+{
+	public static final int RECORD_BYTES = 24;
+
+	private static final int CASTLE_ROOK = 13;
+
+	private PositionCodec()
+	{
+	}
+
+	/**
+	 * Returns the normalized square of a board square, for a side to move
+	 */
+	private static int normalize(int sq, boolean blackToMove)
+	{
+		int base = Game.NEAR_COLOR.equals(Color.BLACK) ? 63 - sq : sq;
+		return blackToMove ? base ^ 56 : base;
+	}
+
+	/**
+	 * Returns the board square of a normalized square, for a side to move
+	 */
+	private static int denormalize(int sq, boolean blackToMove)
+	{
+		int base = blackToMove ? sq ^ 56 : sq;
+		return Game.NEAR_COLOR.equals(Color.BLACK) ? 63 - base : base;
+	}
+
+	/**
+	 * Encodes the position on a board (with its side to move) into a new record
+	 */
+	public static byte[] encode(Board board)
+	{
+		byte[] record = new byte[RECORD_BYTES];
+		encode(board, record, 0);
+		return record;
+	}
+
+	/**
+	 * Encodes the position on a board (with its side to move) into a buffer
+	 *
+	 * @param board The board
+	 * @param out The buffer
+	 * @param offset The index to write the record at
+	 */
+	public static void encode(Board board, byte[] out, int offset)
+	{
+		boolean blackToMove = board.getSideToMove().equals(Color.BLACK);
+		int moverSide = blackToMove ? Bitboard.BLACK : Bitboard.WHITE;
+		long moverPieces = board.getBitboard(0, moverSide);
+		int rights = board.getAllCastlingRights();
+		long castleRooks = castleRooks(board, Bitboard.WHITE, rights & 3) | castleRooks(board, Bitboard.BLACK, rights >> 2);
+
+		long occupancy = 0L;
+		long occ = board.getOccupied();
+		while (occ != 0)
+		{
+			int sq = Long.numberOfTrailingZeros(occ);
+			occ &= occ - 1;
+			occupancy |= 1L << normalize(sq, blackToMove);
+		}
+		for (int i = 0; i < 8; i++)
+		{
+			out[offset + i] = (byte) (occupancy >>> (56 - 8 * i));
+		}
+		java.util.Arrays.fill(out, offset + 8, offset + RECORD_BYTES, (byte) 0);
+
+		//Piece codes, in normalized square order
+		int nibble = 0;
+		while (occupancy != 0)
+		{
+			int n = Long.numberOfTrailingZeros(occupancy);
+			occupancy &= occupancy - 1;
+			long b = 1L << denormalize(n, blackToMove);
+			int side = (moverPieces & b) != 0 ? moverSide : 1 - moverSide;
+			int code = CASTLE_ROOK;
+			if ((castleRooks & b) == 0)
+			{
+				code = Pawn.ENUM;
+				while ((board.getBitboard(code, side) & b) == 0)
+				{
+					code++;
+				}
+			}
+			if ((moverPieces & b) == 0)
+			{
+				code += code == CASTLE_ROOK ? 1 : 6;
+			}
+			out[offset + 8 + nibble / 2] |= (byte) (code << (4 * (nibble & 1)));
+			nibble++;
+		}
+	}
+
+	/**
+	 * Returns the squares of the rooks of a side that can still castle
+	 *
+	 * @param board The board
+	 * @param side The side
+	 * @param rights The castling rights of the side (as in Board.getCastlingRights)
+	 * @return The set of rook squares
+	 */
+	private static long castleRooks(Board board, int side, int rights)
+	{
+		if (rights == 0)
+		{
+			return 0L;
+		}
+		int kingRow = Long.numberOfTrailingZeros(board.getBitboard(King.ENUM, side)) / 8;
+		long rooks = 0L;
+		if ((rights & 1) != 0)
+		{
+			rooks |= 1L << (kingRow * 8 + 7);
+		}
+		if ((rights & 2) != 0)
+		{
+			rooks |= 1L << (kingRow * 8);
+		}
+		return rooks;
+	}
+
+	/**
+	 * Sets up a position from a record on an empty board
+	 *
+	 * @param record The buffer holding the record
+	 * @param offset The index of the record
+	 * @param board The board (empty)
+	 * @param toMove The color to play (the record's white pieces become this color)
+	 */
+	public static void decode(byte[] record, int offset, Board board, Color toMove)
+	{
+		boolean blackToMove = toMove.equals(Color.BLACK);
+		Color other = Board.oppositeColor(toMove);
+		long occupancy = 0L;
+		for (int i = 0; i < 8; i++)
+		{
+			occupancy = (occupancy << 8) | (record[offset + i] & 0xFF);
+		}
+
+		boolean[] canCastle = new boolean[2]; //[mover, other]
+		King[] kings = new King[2];
+		int nibble = 0;
+		while (occupancy != 0)
+		{
+			int n = Long.numberOfTrailingZeros(occupancy);
+			occupancy &= occupancy - 1;
+			int code = (record[offset + 8 + nibble / 2] >>> (4 * (nibble & 1))) & 15;
+			nibble++;
+
+			int owner = code == CASTLE_ROOK ? 0 : code == CASTLE_ROOK + 1 ? 1 : (code - 1) / 6;
+			int pieceEnum = code >= CASTLE_ROOK ? Rook.ENUM : (code - 1) % 6 + 1;
+			Piece piece = Game.createPiece(pieceEnum, owner == 0 ? toMove : other);
+			if (pieceEnum == Rook.ENUM)
+			{
+				piece.setMoved(code < CASTLE_ROOK);
+				canCastle[owner] |= code >= CASTLE_ROOK;
+			}
+			else if (pieceEnum == King.ENUM)
+			{
+				kings[owner] = (King) piece;
+			}
+			piece.putSelfInGrid(board, Bitboard.location(denormalize(n, blackToMove)));
+		}
+
+		//A king only keeps its unmoved state if it can still castle
+		for (int owner = 0; owner < 2; owner++)
+		{
+			if (kings[owner] != null)
+			{
+				kings[owner].setMoved(!canCastle[owner]);
+			}
+		}
+		board.setSideToMove(toMove);
+		board.refreshCastlingRights();
+	}
+}
@@ -1,8 +1,14 @@
 import java.awt.Color;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * A subclass of Player that chooses a smart valid move each time, experimenting with NegaMax
@@ -32,9 +38,34 @@ public class SmartPlayerNegamax extends Player
 	private boolean time_break = false;
 	private int baseline_depth;
 	
+	//Lazy SMP: helper searches on private boards, sharing only the state table
+	private final int SEARCH_THREADS;
+	private volatile boolean stopSearch = false; //Set by the main search to end a helper's search
+	private SmartPlayerNegamax[] helpers = new SmartPlayerNegamax[0];
+	private Thread[] helperThreads = new Thread[0];
+	
+	//Young Brothers Wait: siblings of a searched first move are split across a fork/join pool
+	private boolean YBWC = false;
+	private static final int SPLIT_MIN_PLYS_LEFT = 3; //Don't split nodes too close to the leaves
+	private ForkJoinPool splitPool;
+	private SmartPlayerNegamax master = this; //Player that owns the pool (this, unless a split searcher)
+	private Board splitRoot; //Copy of the root position that split searchers are created from
+	private List<SmartPlayerNegamax> splitSearchers = new ArrayList<>();
+	private ConcurrentLinkedQueue<SmartPlayerNegamax> idleSearchers = new ConcurrentLinkedQueue<>();
+	private SplitPoint currentSplit; //Split point this searcher is working under (null if main search)
+	private int splitAlpha; //Alpha of currentSplit when this searcher's brother was started
+	private boolean windowRaised = false; //A brother raised currentSplit's alpha past splitAlpha
+	private int[] pathMoves = new int[MAX_PLY]; //Moves from the root to the current node (NONE for null moves)
+	private int pathLength = 0;
+	private final long[] splitEvalStats = new long[4]; //Evaluation cache counts of the pool threads (see evalStats)
+	private static final ThreadLocal<int[]> SPLIT_NESTING = ThreadLocal.withInitial(() -> new int[1]); //Split search pieces running on this thread
+	
 	//General structures
-	private Move bestMove = null;
-	private Move[] prevMoves;
+	private static final int MAX_PLY = 128;
+	private int bestMove = PackedMove.NONE;
+	private int[] prevMoves;
+	private int[][] moveStack = new int[MAX_PLY][Board.MAX_MOVES]; //Packed moves generated at each ply
+	private long[] sortKeys = new long[Board.MAX_MOVES];
 
 	// Debug & Performance
 	private long inner_nodes = 0;
@@ -42,6 +73,7 @@ public class SmartPlayerNegamax extends Player
 	private long q_nodes = 0;
 	private long total_nodes = 0;
 	private long nodesProcessedByTT = 0;
+	private long searchedNodes = 0; //Total nodes over all depths of the current move
 	private long timeStart = 0;
 	private int moveCount = 1;
 	private String detailedLines = "";
@@ -51,84 +83,92 @@ public class SmartPlayerNegamax extends Player
 	private final boolean USE_TT = true;
 	
 	//Heuristics Data Structures
-	private Move[][][][] counterMove = new Move[8][8][8][8]; //Counter-move for ordering
+	private int[][] counterMove = new int[64][64]; //Counter-move for ordering, by source and destination of previous move
 	
 	public SmartPlayerNegamax(Board board, String name, Color color, int baselineDepth) throws IOException
 	{
 		super(board, name, color);
-		this.prevMoves = new Move[4];
+		this.prevMoves = new int[4];
 		this.PLAY_DEPTH = baselineDepth;
 		this.ITERATIVE_DEEPENING = true;
 		this.PLAY_TIME = 3500;
 		this.baseline_depth = baselineDepth;
+		this.SEARCH_THREADS = 1;
 		
 	}
 	
 	public SmartPlayerNegamax(Board board, String name, Color color, int playDepth, boolean deepening, int playTime) throws IOException
+	{
+		this(board, name, color, playDepth, deepening, playTime, 1);
+	}
+	
+	/**
+	 * @param searchThreads The number of threads searching each move (1 - single-threaded; more than 1
+	 * runs Lazy SMP helper threads alongside the main search)
+	 */
+	public SmartPlayerNegamax(Board board, String name, Color color, int playDepth, boolean deepening, int playTime, int searchThreads) throws IOException
 	{
 		super(board, name, color);
-		this.prevMoves = new Move[4];
+		this.prevMoves = new int[4];
 		this.PLAY_DEPTH = playDepth;
 		this.ITERATIVE_DEEPENING = deepening;
 		this.PLAY_TIME = playTime;
 		this.baseline_depth = playDepth;
+		this.SEARCH_THREADS = Math.max(1, searchThreads);
 		
 	}
 	
 	
 	/**
 	 * Sorts the moves in from volatile to quiet (capturing priority)
-	 * @param moves The move list
+	 * @param moves The packed move buffer
+	 * @param count The number of moves in the buffer
+	 * @param previousMove The move that led to this position
 	 */
-	private void sortMoves(ArrayList<Move> moves, Move previousMove) {
+	private void sortMoves(int[] moves, int count, int previousMove) {
 		Board board = getBoard();
-		moves.sort((m1, m2) -> {
-			/**
-			 * Sort order:
-			 * Good captures
-			 * Neutral captures
-			 * Counter move heuristic
-			 * Neutral movements
-			 * Bad captures
-			 */
-			int m1Score = 0; int m2Score = 0;
-			if (m1.getVictim() != null)
-			{
-				m1Score += 100 + Evaluation.SEE(board, m1)*1000;
-			}
-			if (m2.getVictim() != null) {
-				m2Score += 100 + Evaluation.SEE(board, m2)*1000;
-			}
-			
-			//Good, Neutral, Bad captures
-			int captureComp = m2Score - m1Score;
-			if (captureComp == 0)
-			{
-				//Counter-move heuristic
-				if (previousMove != null) {
-					int counterMoveBonus = 100;
-					Location from = previousMove.getSource();
-					Location to = previousMove.getDestination();
-					Move counter = counterMove[from.getRow()][from.getCol()][to.getRow()][to.getCol()];
-					m1Score += m1.equals(counter) ? counterMoveBonus : 0;
-					m2Score += m2.equals(counter) ? counterMoveBonus : 0;
-				}
-				
-				int CMComp = m2Score - m1Score;
-				if (CMComp == 0)
-				{
-					//Start with more valuable pieces to move
-					return m2.getPiece().getValue() - m1.getPiece().getValue();
-				}
-				else
-				{
-					return CMComp;
-				}
+		int counter = PackedMove.NONE;
+		if (previousMove != PackedMove.NONE) {
+			counter = counterMove[PackedMove.from(previousMove)][PackedMove.to(previousMove)];
+		}
+		
+		/**
+		 * Sort order:
+		 * Good captures
+		 * Neutral captures
+		 * Counter move heuristic
+		 * Neutral movements
+		 * Bad captures
+		 * 
+		 * (ties broken by moving more valuable pieces first)
+		 */
+		for (int i=0;i<count;i++)
+		{
+			int m = moves[i];
+			long captureScore = 0;
+			if (PackedMove.isCapture(m)) {
+				captureScore = 100 + Evaluation.SEE(board, m)*1000;
 			}
-			else {
-				return captureComp;
+			int counterMoveBonus = m == counter ? 1 : 0;
+			int pieceValue = board.get(Bitboard.location(PackedMove.from(m))).getValue();
+			sortKeys[i] = (captureScore << 32) | (counterMoveBonus << 16) | pieceValue;
+		}
+		
+		//Insertion sort, highest key first (stable, so ties keep generation order)
+		for (int i=1;i<count;i++)
+		{
+			int m = moves[i];
+			long key = sortKeys[i];
+			int j = i - 1;
+			while (j >= 0 && sortKeys[j] < key)
+			{
+				moves[j+1] = moves[j];
+				sortKeys[j+1] = sortKeys[j];
+				j--;
 			}
-		});
+			moves[j+1] = m;
+			sortKeys[j+1] = key;
+		}
 	}
 	
 	/*
@@ -136,31 +176,25 @@ public class SmartPlayerNegamax extends Player
 	 * @param m The current move
 	 * @param prev The previous move
 	 */
-	private void updateCounterTable(Move m, Move prev)
+	private void updateCounterTable(int m, int prev)
 	{
 		//If non-capture move and previous move exists, set counter-move
-		if (prev != null && m.getVictim() == null)
+		if (prev != PackedMove.NONE && !PackedMove.isCapture(m))
 		{
-			Location from = prev.getSource();
-			Location to = prev.getDestination();
-			counterMove[from.getRow()][from.getCol()][to.getRow()][to.getCol()] = m;
+			counterMove[PackedMove.from(prev)][PackedMove.to(prev)] = m;
 		}
 	}
 	
 	/**
 	 * Helps retrieve an evaluation score, either from calculation or data file
-	 * @param compressedState The compressed version of the board
-	 * @return The ABSOLUTE evaluation (not relative)
+	 * @param stateKey The Zobrist key of the board
+	 * @return The packed table entry (TranspositionTable.MISS if not found)
 	 * @throws IOException 
 	 */
-	private CompressionInfo retrieveEvaluation(String compressedState) throws IOException
+	private long retrieveEvaluation(long stateKey) throws IOException
 	{
-		CompressionInfo table_info = null;
 		//Check if leaf calculation already done
-		if (Compression.tableHasState(compressedState)) {
-			table_info = Compression.retrieveFromTable(compressedState);
-		}
-		return table_info;
+		return Compression.retrieveFromTable(stateKey);
 	}
 	/**
 	 * Quiescence search to ensure that there's no traps or capturebacks
@@ -171,7 +205,7 @@ public class SmartPlayerNegamax extends Player
 	 * @return The evaluational value
 	 * @throws IOException
 	 */
-	private int quiescence(int alpha, int beta, int color, int depth, int maxDepth, Move previousMove) throws IOException
+	private int quiescence(int alpha, int beta, int color, int depth, int maxDepth, int previousMove) throws IOException
 	{
 		Board board = getBoard();
 		int plysLeft = maxDepth - depth;
@@ -180,13 +214,18 @@ public class SmartPlayerNegamax extends Player
 		
 		q_nodes++;
 		
-		//Stand pat
-		int absoluteEval = Evaluation.evaluate(board).value;
+		//Stand pat (lazy when far outside the window)
+		int absoluteEval = Evaluation.evaluate(board, color, alpha, beta).value;
 		
 		int evalScore = absoluteEval * color;
 		
 		boolean ableDeltaPrune = !inCheck && !Evaluation.isEndgame(board);
 		
+		//Out of room in the move stack
+		if (depth >= MAX_PLY) {
+			return evalScore;
+		}
+		
 		//Don't use stand pat as lower bound if in check (special case)
 		if (!inCheck) {
 					
@@ -208,37 +247,39 @@ public class SmartPlayerNegamax extends Player
 		 * 
 		 * TT still works in quiescence search because maxDepth - depth always <= 0, so 
 		 * quiescence saved states will always be distinct from main states (main TT won't
-		 * use these values because table_info.depth will always be >= maxDepth-depth
+		 * use these values because the entry depth will always be >= maxDepth-depth
 		 *
 		 */
 		
-		String compressedState = Compression.compressState(board, color);
+		long stateKey = board.getZobristKey();
 		
 		if (USE_TT)
 		{
-			CompressionInfo table_info = retrieveEvaluation(compressedState);
+			long table_info = retrieveEvaluation(stateKey);
+			int tableScore = TranspositionTable.score(table_info);
+			int tableNodeType = TranspositionTable.nodeType(table_info);
 			//Only use quiescence TT values (negative depth)
-			if (table_info != null && table_info.depth >= plysLeft)
+			if (table_info != TranspositionTable.MISS && TranspositionTable.depth(table_info) >= plysLeft)
 			{
 				//PV Node (Exact)
-				if (table_info.nodeType == 1) {
+				if (tableNodeType == 1) {
 					nodesProcessedByTT++;
-					return table_info.score;
+					return tableScore;
 				}
 				//Upper Bound (<= alpha) (improves beta)
-				else if (table_info.nodeType == 2) {
-					if (table_info.score <= alpha) {
+				else if (tableNodeType == 2) {
+					if (tableScore <= alpha) {
 						nodesProcessedByTT++;
-						return table_info.score;
+						return tableScore;
 					}
 					
 				}
 				//Lower Bound (>= beta) (improves alpha)
-				else if (table_info.nodeType == 3) {
-					if (table_info.score >= beta)
+				else if (tableNodeType == 3) {
+					if (tableScore >= beta)
 					{
 						nodesProcessedByTT++;
-						return table_info.score;
+						return tableScore;
 					}
 					
 				}
@@ -251,28 +292,30 @@ public class SmartPlayerNegamax extends Player
 			return alpha;
 		}
 		
-		ArrayList<Move> moves = board.allMoves(pieceColor);
+		int[] moves = moveStack[depth];
+		int moveCount = board.generateMoves(pieceColor, moves);
 		
 		// Sort the moves by best depth 1 evaluation score
-		sortMoves(moves, previousMove);
+		sortMoves(moves, moveCount, previousMove);
 		
 		int value = evalScore;
 		int originalAlpha = alpha;
 		
 		// Searches through all captures
-		for (Move m: moves) {
+		for (int i=0;i<moveCount;i++) {
+			int m = moves[i];
 			/*
 			 * Ignore non-capture, quiet moves (unless in check or if move checks)
 			 */
 			
 			if (!inCheck) {
-				if (m.getVictim() == null) {
+				if (!PackedMove.isCapture(m)) {
 					break;
 				}
 			}
 			
 			//Delta Pruning for a capture move
-			if (m.getVictim() != null)
+			if (PackedMove.isCapture(m))
 			{
 				//Check additional delta pruning (move-specific)
 				if (ableDeltaPrune && evalScore + Evaluation.SEE(board, m) + QUIESCENCE_PRUNING_MARGIN_DELTA < alpha)
@@ -301,15 +344,15 @@ public class SmartPlayerNegamax extends Player
 		if (USE_TT) {
 			if (value <= originalAlpha) {
 				//Fail-low (<= alpha)
-				Compression.addToTable(compressedState, 2, plysLeft, value);
+				Compression.addToTable(stateKey, 2, plysLeft, value, PackedMove.NONE);
 			}
 			else if (value >= beta) {
 				//Fail-high (alpha-beta cutoff, >= beta)
-				Compression.addToTable(compressedState, 3, plysLeft, value);
+				Compression.addToTable(stateKey, 3, plysLeft, value, PackedMove.NONE);
 			}
 			else {
 				//Exact score: alpha < score < beta
-				Compression.addToTable(compressedState, 1, plysLeft, value);
+				Compression.addToTable(stateKey, 1, plysLeft, value, PackedMove.NONE);
 			}
 		}
 		
@@ -322,9 +365,17 @@ public class SmartPlayerNegamax extends Player
 	 * @return The best score in the subtree
 	 * @throws IOException
 	 */
-	public int negamax(int depth, int maxDepth, int alpha, int beta, int color, Move previousMove, EvaluationLine currentLine, boolean nullMoveSearch) throws IOException
+	public int negamax(int depth, int maxDepth, int alpha, int beta, int color, int previousMove, EvaluationLine currentLine, boolean nullMoveSearch) throws IOException
 	{
 		
+		//Helper search: main search has finished, or a brother at a split point produced a cutoff or
+		//raised its alpha, so exit the same way as a time break
+		if (stopSearch || splitInterrupted())
+		{
+			time_break = true;
+			return 10000;
+		}
+		
 		//Iterative Deepening: If search runs over the play time limit, flag time_break and exit
 		//Don't cut time if haven't reached baseline depth
 		if (ITERATIVE_DEEPENING && maxDepth > baseline_depth)
@@ -352,34 +403,36 @@ public class SmartPlayerNegamax extends Player
 		Board board = getBoard();
 		
 		
-		String compressedState = Compression.compressState(board, color);
+		long stateKey = board.getZobristKey();
 		
 		//Probe the state table (transposition table)
 		if (USE_TT) {
-			CompressionInfo table_info = retrieveEvaluation(compressedState);
-			if (table_info != null && table_info.depth >= plysLeft && depth > 0) //Do not read TT if root
+			long table_info = retrieveEvaluation(stateKey);
+			int tableScore = TranspositionTable.score(table_info);
+			int tableNodeType = TranspositionTable.nodeType(table_info);
+			if (table_info != TranspositionTable.MISS && TranspositionTable.depth(table_info) >= plysLeft && depth > 0) //Do not read TT if root
 			{
 				//PV Node (Exact)
-				if (table_info.nodeType == 1) {
+				if (tableNodeType == 1) {
 					nodesProcessedByTT++;
 					currentLine.special = 1;
-					return table_info.score;
+					return tableScore;
 				}
 				//Upper Bound (<= alpha) (improves beta)
-				else if (table_info.nodeType == 2) {
-					if (table_info.score <= alpha) {
+				else if (tableNodeType == 2) {
+					if (tableScore <= alpha) {
 						nodesProcessedByTT++;
 						currentLine.special = 2;
-						return table_info.score;
+						return tableScore;
 					}
 				}
 				//Lower Bound (>= beta) (improves alpha)
-				else if (table_info.nodeType == 3) {
-					if (table_info.score >= beta)
+				else if (tableNodeType == 3) {
+					if (tableScore >= beta)
 					{
 						nodesProcessedByTT++;
 						currentLine.special = 3;
-						return table_info.score;
+						return tableScore;
 					}
 				}
 			}
@@ -387,8 +440,8 @@ public class SmartPlayerNegamax extends Player
 		
 		boolean inCheck = board.getKing(pieceColor).inCheck();
 		
-		//Evaluation of current node for pruning purposes
-		int absoluteEval = Evaluation.evaluate(board).value;
+		//Evaluation of current node for pruning purposes (lazy when far outside the window)
+		int absoluteEval = Evaluation.evaluate(board, color, alpha, beta).value;
 		int evalScore = absoluteEval * color;
 		
 		
@@ -405,16 +458,17 @@ public class SmartPlayerNegamax extends Player
 		 */
 		
 		
-		ArrayList<Piece> nonPawnPieces = new ArrayList<>();
-		nonPawnPieces.addAll(board.getPiecesOfType(Knight.ENUM, pieceColor));
-		nonPawnPieces.addAll(board.getPiecesOfType(Bishop.ENUM, pieceColor));
-		nonPawnPieces.addAll(board.getPiecesOfType(Rook.ENUM, pieceColor));
-		nonPawnPieces.addAll(board.getPiecesOfType(Queen.ENUM, pieceColor));
+		int side = Bitboard.side(pieceColor);
+		boolean hasNonPawnPieces = (board.getBitboard(0, side) & ~board.getBitboard(Pawn.ENUM, side) & ~board.getBitboard(King.ENUM, side)) != 0;
 		
-		if (plysLeft > 1 && previousMove != null && !inCheck && !nonPawnPieces.isEmpty() && evalScore >= beta)
+		if (plysLeft > 1 && previousMove != PackedMove.NONE && !inCheck && hasNonPawnPieces && evalScore >= beta)
 		{
 			int R = plysLeft <= 3 ? 1 : (plysLeft <= 6 ? 3 : 4); //[1-3] -> R=1; [4-6] -> R=3; [7+] -> R=4
-			int nullScore = -negamax(depth+R,maxDepth,-beta,-beta+1,-color,null,new EvaluationLine(null),true);
+			pathMoves[pathLength++] = PackedMove.NONE;
+			board.makeNullMove();
+			int nullScore = -negamax(depth+R,maxDepth,-beta,-beta+1,-color,PackedMove.NONE,new EvaluationLine(PackedMove.NONE),true);
+			board.undoNullMove();
+			pathLength--;
 			
 			//Cutoff if still better than beta
 			if (nullScore >= beta)
@@ -446,36 +500,78 @@ public class SmartPlayerNegamax extends Player
 		
 		
 		//Get all moves
-		ArrayList<Move> moves = board.allMoves(pieceColor);
+		int[] moves = moveStack[depth];
+		int moveCount = board.generateMoves(pieceColor, moves);
 		
 		//Sort the moves
-		sortMoves(moves, previousMove);
+		sortMoves(moves, moveCount, previousMove);
 		
 		int value = -INF;
 		int originalAlpha = alpha;
-		for (Move m : moves)
+		SplitTask[] brothers = null;
+		boolean bestIsBound = false; //Current best is a brother's fail-low bound, not an exact score
+		for (int i=0;i<moveCount;i++)
 		{
-
-			EvaluationLine childLine = new EvaluationLine(null);
+			int m = moves[i];
+			EvaluationLine childLine;
+			int childValue;
 			
-			board.executeMove(m);
+			//Young Brothers Wait: eldest brother has been searched without a cutoff, search the rest in parallel
+			if (i == 1 && YBWC && plysLeft >= SPLIT_MIN_PLYS_LEFT && moveCount > 2)
+			{
+				brothers = splitBrothers(moves, moveCount, depth, maxDepth, alpha, beta, color, nullMoveSearch);
+				if (time_break)
+				{
+					return 10000;
+				}
+			}
+			
+			if (brothers != null)
+			{
+				//Cut off by a brother that comes later in the order
+				if (brothers[i].aborted)
+				{
+					continue;
+				}
+				childValue = brothers[i].value;
+				childLine = brothers[i].line;
+			}
+			else
+			{
+				childLine = new EvaluationLine(PackedMove.NONE);
+				pathMoves[pathLength++] = m;
+				board.executeMove(m);
+				childValue = -negamax(depth+1, maxDepth, -beta, -alpha, -color, m, childLine,nullMoveSearch);
+				board.undoMove(m);
+				pathLength--;
+				
+				//Check for time break (if time break, return)
+				if (time_break)
+				{
+					return 10000;
+				}
+			}
 			
-			int childValue = -negamax(depth+1, maxDepth, -beta, -alpha, -color, m, childLine,nullMoveSearch);
+			boolean isBound = brothers != null && brothers[i].failedLow;
 			if (childValue > value)
 			{
 				value = childValue;
+				bestIsBound = isBound;
 				
 				//Update the current line if found better move
 				currentLine.bestMove = m;
 				currentLine.next = childLine;
 			}
-			
-			board.undoMove(m);
-			
-			//Check for time break (if time break, return)
-			if (time_break)
+			else if (childValue == value && bestIsBound && !isBound)
 			{
-				return 10000;
+				//A brother searched with a raised alpha can fail low onto the exact score of another, prefer the exact one
+				bestIsBound = false;
+				currentLine.bestMove = m;
+				currentLine.next = childLine;
+				if (depth == 0 && value == alpha)
+				{
+					bestMove = m;
+				}
 			}
 			
 			/*
@@ -490,8 +586,8 @@ public class SmartPlayerNegamax extends Player
 			{
 				double adjustedEval = (childValue * color) / 100.0;
 				String evalPrint = (adjustedEval == 0 ? "" : (adjustedEval > 0 ? "+" : "-")) + Math.abs(adjustedEval);
-				detailedLines += ("Line (" + evalPrint + "): " + "SEE=" + (m.getVictim() != null ? Evaluation.SEE(board, m) : 0) + " ");
-				detailedLines += (m.toStandardNotation()) + " ";
+				detailedLines += ("Line (" + evalPrint + "): " + "SEE=" + (PackedMove.isCapture(m) ? Evaluation.SEE(board, m) : 0) + " ");
+				detailedLines += (PackedMove.toStandardNotation(m)) + " ";
 				detailedLines += (childLine) + "\n";
 			}
 			
@@ -512,7 +608,7 @@ public class SmartPlayerNegamax extends Player
 			}
 		}
 		//Check for checkmate/draw
-		if (moves.size() == 0)
+		if (moveCount == 0)
 		{
 			if (inCheck)
 			{
@@ -528,20 +624,159 @@ public class SmartPlayerNegamax extends Player
 		if (USE_TT && !nullMoveSearch && !time_break) {
 			if (value <= originalAlpha) {
 				//Fail-low (<= alpha)
-				Compression.addToTable(compressedState, 2, plysLeft, value);
+				Compression.addToTable(stateKey, 2, plysLeft, value, currentLine.bestMove);
 			}
 			else if (value >= beta) {
 				//Fail-high (alpha-beta cutoff, >= beta)
-				Compression.addToTable(compressedState, 3, plysLeft, value);
+				Compression.addToTable(stateKey, 3, plysLeft, value, currentLine.bestMove);
 			}
 			else {
 				//Exact score: alpha < score < beta
-				Compression.addToTable(compressedState, 1, plysLeft, value);
+				Compression.addToTable(stateKey, 1, plysLeft, value, currentLine.bestMove);
 			}
 		}
 		
 		return value;
 	}
+	/**
+	 * Searches the younger brothers (moves 1 and up) of a node on the split pool and waits for them
+	 * 
+	 * @return The finished tasks, indexed by move (sets time_break if the search has to be abandoned)
+	 */
+	private SplitTask[] splitBrothers(int[] moves, int moveCount, int depth, int maxDepth, int alpha, int beta, int color, boolean nullMoveSearch)
+	{
+		SplitPoint sp = new SplitPoint(currentSplit, splitAlpha, alpha, beta);
+		int[] path = Arrays.copyOf(pathMoves, pathLength);
+		SplitTask[] tasks = new SplitTask[moveCount];
+		List<SplitTask> forked = new ArrayList<>();
+		for (int i=1;i<moveCount;i++)
+		{
+			tasks[i] = new SplitTask(sp, path, moves[i], depth, maxDepth, color, nullMoveSearch);
+			forked.add(tasks[i]);
+		}
+		ForkJoinTask.invokeAll(forked);
+		
+		for (int i=1;i<moveCount;i++)
+		{
+			if (tasks[i].timedOut)
+			{
+				time_break = true;
+			}
+		}
+		if (splitInterrupted())
+		{
+			time_break = true;
+		}
+		return tasks;
+	}
+	
+	/**
+	 * Checks if the brother this searcher is searching has to stop: its split point (or one above it)
+	 * has been cut off, or another brother has raised the split point's alpha since it started, so it
+	 * has to be searched again with the narrower window (flagged by windowRaised)
+	 */
+	private boolean splitInterrupted()
+	{
+		if (currentSplit == null)
+		{
+			return false;
+		}
+		if (currentSplit.isAborted())
+		{
+			return true;
+		}
+		if (currentSplit.getAlpha() > splitAlpha)
+		{
+			windowRaised = true;
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns the evaluation cache counts of the current thread: pawn hash hits and misses, then eval
+	 * cache hits and misses
+	 */
+	private static long[] evalStats()
+	{
+		PawnTable pawnTable = Evaluation.getPawnTable();
+		EvalCache evalCache = Evaluation.getEvalCache();
+		return new long[] { pawnTable.getHits(), pawnTable.getMisses(), evalCache.getHits(), evalCache.getMisses() };
+	}
+	
+	/**
+	 * Starts counting the evaluation cache use of a piece of the split search on the current pool thread.
+	 * Only the outermost piece on a thread counts, since the pieces it runs while waiting on a split are
+	 * counted with it
+	 * 
+	 * @return The counts at the start, or null if nested in another piece
+	 */
+	private static long[] startSplitStats()
+	{
+		return SPLIT_NESTING.get()[0]++ == 0 ? evalStats() : null;
+	}
+	
+	/**
+	 * Adds the evaluation cache use of a piece of the split search to this player's totals
+	 * @param start The counts returned by startSplitStats
+	 */
+	private void endSplitStats(long[] start)
+	{
+		SPLIT_NESTING.get()[0]--;
+		if (start == null)
+		{
+			return;
+		}
+		long[] end = evalStats();
+		synchronized (splitEvalStats)
+		{
+			for (int i=0;i<splitEvalStats.length;i++)
+			{
+				splitEvalStats[i] += end[i] - start[i];
+			}
+		}
+	}
+	
+	/**
+	 * Takes an idle split searcher (board at the root position), creating one if none are free
+	 */
+	private SmartPlayerNegamax borrowSearcher()
+	{
+		SmartPlayerNegamax searcher = idleSearchers.poll();
+		if (searcher == null)
+		{
+			synchronized (splitSearchers)
+			{
+				try
+				{
+					searcher = new SmartPlayerNegamax(splitRoot.copy(), getName() + " (split " + (splitSearchers.size()+1) + ")", getColor(), PLAY_DEPTH, false, PLAY_TIME, 1);
+				}
+				catch (IOException e)
+				{
+					throw new RuntimeException(e);
+				}
+				searcher.master = this;
+				searcher.YBWC = YBWC; //Splits its own nodes too, nesting split points under this one's
+				splitSearchers.add(searcher);
+			}
+		}
+		return searcher;
+	}
+	
+	/**
+	 * Drops the split searchers of the previous position (call when the root position changes)
+	 */
+	private void resetSplitSearchers()
+	{
+		splitRoot = getBoard().copy();
+		splitSearchers.clear();
+		idleSearchers.clear();
+		if (splitPool == null)
+		{
+			splitPool = new ForkJoinPool(SEARCH_THREADS);
+		}
+	}
+	
 	/**
 	 * Procedure to run negamax on a certain depth
 	 * @return The debug output of the run
@@ -550,7 +785,7 @@ public class SmartPlayerNegamax extends Player
 	{
 		
 		//Reset Debug/Performance variables
-		bestMove = null;
+		bestMove = PackedMove.NONE;
 		inner_nodes = 0;
 		leafs = 0;
 		q_nodes = 0;
@@ -561,16 +796,45 @@ public class SmartPlayerNegamax extends Player
 		time_break = false;
 
 		int score;
-		EvaluationLine PVLine = new EvaluationLine(null);
+		EvaluationLine PVLine = new EvaluationLine(PackedMove.NONE);
 		try
 		{
-			score = negamax(0, depth, -INF, INF, color, null, PVLine, false);
+			if (YBWC)
+			{
+				for (SmartPlayerNegamax searcher : splitSearchers)
+				{
+					searcher.inner_nodes = searcher.leafs = searcher.q_nodes = searcher.nodesProcessedByTT = 0;
+				}
+				score = splitPool.invoke(ForkJoinTask.adapt(() -> {
+					long[] stats = startSplitStats();
+					try
+					{
+						return negamax(0, depth, -INF, INF, color, PackedMove.NONE, PVLine, false);
+					}
+					finally
+					{
+						endSplitStats(stats);
+					}
+				}));
+				for (SmartPlayerNegamax searcher : splitSearchers)
+				{
+					inner_nodes += searcher.inner_nodes;
+					leafs += searcher.leafs;
+					q_nodes += searcher.q_nodes;
+					nodesProcessedByTT += searcher.nodesProcessedByTT;
+				}
+			}
+			else
+			{
+				score = negamax(0, depth, -INF, INF, color, PackedMove.NONE, PVLine, false);
+			}
 		}
 		catch (IOException e)
 		{
 			score = 0;
 		}
 		total_nodes = inner_nodes + q_nodes; //No leaf nodes because q_nodes includes leafs
+		searchedNodes += total_nodes;
 		
 		double adjustedEval = (score * color) / 100.0;
 		String evalPrint = (adjustedEval == 0 ? "" : (adjustedEval > 0 ? "+" : "-")) + Math.abs(adjustedEval);
@@ -607,6 +871,124 @@ public class SmartPlayerNegamax extends Player
 		return output;
 	}
 	
+	/**
+	 * Starts the Lazy SMP helper threads for the current position. Each helper runs its own iterative
+	 * deepening on a copy of the board until stopped, starting at alternating depths so the threads
+	 * fill the shared state table with different parts of the tree
+	 * 
+	 * @param color The color to play (1 - White, -1 - Black)
+	 */
+	private void startHelpers(int color)
+	{
+		helpers = new SmartPlayerNegamax[SEARCH_THREADS - 1];
+		helperThreads = new Thread[SEARCH_THREADS - 1];
+		for (int i=0;i<helpers.length;i++)
+		{
+			try
+			{
+				helpers[i] = new SmartPlayerNegamax(getBoard().copy(), getName() + " (helper " + (i+1) + ")", getColor(), PLAY_DEPTH, false, PLAY_TIME, 1);
+			}
+			catch (IOException e)
+			{
+				throw new RuntimeException(e);
+			}
+			SmartPlayerNegamax helper = helpers[i];
+			int startDepth = PLAY_DEPTH + (i+1) % 2;
+			helperThreads[i] = new Thread(() -> helper.runHelper(startDepth, color));
+			helperThreads[i].setDaemon(true);
+			helperThreads[i].start();
+		}
+	}
+	
+	/**
+	 * Iterative deepening loop of a helper thread
+	 * @param startDepth The first depth to search
+	 * @param color The color to play
+	 */
+	private void runHelper(int startDepth, int color)
+	{
+		for (int depth=startDepth;!stopSearch && depth < MAX_PLY;depth++)
+		{
+			runNegamax(depth, color);
+		}
+	}
+	
+	/**
+	 * Stops the helper threads and waits for them to finish
+	 * @return The number of nodes searched by the helpers
+	 */
+	private long stopHelpers()
+	{
+		long nodes = 0;
+		for (int i=0;i<helpers.length;i++)
+		{
+			helpers[i].stopSearch = true;
+			try
+			{
+				helperThreads[i].join();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			nodes += helpers[i].searchedNodes;
+		}
+		helpers = new SmartPlayerNegamax[0];
+		helperThreads = new Thread[0];
+		return nodes;
+	}
+	
+	/**
+	 * Prepares the parallel search (if any) for a new root position
+	 * @param color The color to play
+	 */
+	private void startParallelSearch(int color)
+	{
+		if (YBWC)
+		{
+			resetSplitSearchers();
+		}
+		else
+		{
+			startHelpers(color);
+		}
+	}
+	
+	/**
+	 * Searches the current position to a fixed depth without printing the search output
+	 * (used for benchmarking)
+	 * 
+	 * @param depth The depth to search
+	 * @return The best packed move
+	 */
+	public int searchToDepth(int depth)
+	{
+		int numColor = getColor().equals(Color.WHITE) ? 1 : -1;
+		searchedNodes = 0;
+		Compression.newSearch();
+		startParallelSearch(numColor);
+		runNegamax(depth, numColor);
+		searchedNodes += stopHelpers();
+		return bestMove;
+	}
+	
+	/**
+	 * Returns the number of nodes searched for the last move, by all threads
+	 */
+	public long getSearchedNodes()
+	{
+		return searchedNodes;
+	}
+	
+	/**
+	 * Selects the parallel search used when running on more than one thread
+	 * @param enabled True for Young Brothers Wait splitting, false for Lazy SMP (default)
+	 */
+	public void setYoungBrothersWait(boolean enabled)
+	{
+		YBWC = enabled;
+	}
+	
 	/**
 	 * Gets the next move by selecting a random one
 	 * 
@@ -632,11 +1014,20 @@ public class SmartPlayerNegamax extends Player
 		
 		//Run search
 		String runInfo = null;
+		long moveTimeStart = System.currentTimeMillis();
+		searchedNodes = 0;
+		long[] evalStats = evalStats(); //This thread's, plus the pool threads' with YBWC
+		synchronized (splitEvalStats)
+		{
+			Arrays.fill(splitEvalStats, 0);
+		}
+		Compression.newSearch();
+		startParallelSearch(numColor);
 		
 		//Iterative Deepening approach, cap out at certain time
 		if (ITERATIVE_DEEPENING) {
 			int addition = 0;
-			Move prevBest = null;
+			int prevBest = PackedMove.NONE;
 			String prevInfo = null;
 			
 			time_break = false;
@@ -656,15 +1047,15 @@ public class SmartPlayerNegamax extends Player
 		}
 		
 		//If 2 repetitions, run deeper
-		if (prevMoves[0] != null && prevMoves[0].equals(prevMoves[2])
-				&& prevMoves[1] != null && prevMoves[1].equals(prevMoves[3])
-				&& bestMove != null && bestMove.equals(prevMoves[1])) {
+		if (prevMoves[0] != PackedMove.NONE && prevMoves[0] == prevMoves[2]
+				&& prevMoves[1] != PackedMove.NONE && prevMoves[1] == prevMoves[3]
+				&& bestMove != PackedMove.NONE && bestMove == prevMoves[1]) {
 			
 			boolean oldITERATIVE_DEEPENING = ITERATIVE_DEEPENING;
 			ITERATIVE_DEEPENING = false; //Shut off Iterative Deepening for now
 			
 			int addition = 1;
-			while (bestMove != null && bestMove.equals(prevMoves[1]) && addition <= 6) {
+			while (bestMove != PackedMove.NONE && bestMove == prevMoves[1] && addition <= 6) {
 				System.out.println("Encountered Repetition, running depth " + (PLAY_DEPTH+addition));
 				runInfo = runNegamax(PLAY_DEPTH+addition, numColor);
 				addition++;
@@ -672,8 +1063,33 @@ public class SmartPlayerNegamax extends Player
 			
 			ITERATIVE_DEEPENING = oldITERATIVE_DEEPENING; //Return Iterative Deepening to original state
 		}
+		long helperNodes = stopHelpers();
+		
 		//Print search debug output
 		System.out.println(runInfo);
+		long[] moveStats = evalStats();
+		synchronized (splitEvalStats)
+		{
+			for (int i=0;i<moveStats.length;i++)
+			{
+				moveStats[i] += splitEvalStats[i] - evalStats[i];
+			}
+		}
+		long pawnHits = moveStats[0], pawnMisses = moveStats[1], evalHits = moveStats[2], evalMisses = moveStats[3];
+		System.out.println("Pawn Hash: | Hits: " + pawnHits + " | Misses: " + pawnMisses
+				+ " | Hit Rate: " + (pawnHits * 1000 / Math.max(1, pawnHits + pawnMisses)) / 10.0 + "%");
+		System.out.println("Eval Cache: | Hits: " + evalHits + " | Misses: " + evalMisses
+				+ " | Hit Rate: " + (evalHits * 1000 / Math.max(1, evalHits + evalMisses)) / 10.0 + "%");
+		if (SEARCH_THREADS > 1 && !YBWC)
+		{
+			long combinedNodes = searchedNodes + helperNodes;
+			long elapsed = Math.max(1, System.currentTimeMillis() - moveTimeStart);
+			System.out.println("Lazy SMP: | Threads: " + SEARCH_THREADS
+					+ " | Main Nodes: " + searchedNodes
+					+ " | Helper Nodes: " + helperNodes
+					+ " | Combined Nodes: " + combinedNodes
+					+ " | NPS: " + (combinedNodes * 1000 / elapsed) + "\n");
+		}
 		
 		//Update previous moves
 		for (int i=prevMoves.length-1;i>=1;i--) {
@@ -684,8 +1100,8 @@ public class SmartPlayerNegamax extends Player
 		//Update move count
 		moveCount++;
 		
-		//Add to move queue
-		return bestMove;
+		//Add to move queue (only the chosen move becomes a Move object)
+		return bestMove == PackedMove.NONE ? null : board.toMove(bestMove);
 		
 	}
 	
@@ -696,10 +1112,185 @@ public class SmartPlayerNegamax extends Player
 		System.out.println("----- AI Settings -----");
 		System.out.println("INITIAL DEPTH: " + (PLAY_DEPTH));
 		System.out.println("PLAY TIME CUTOFF: " + PLAY_TIME);
+		System.out.println("SEARCH THREADS: " + SEARCH_THREADS);
+		System.out.println("PARALLEL SEARCH: " + (YBWC ? "Young Brothers Wait" : "Lazy SMP"));
 		Compression.printDataDetails();
 		
 	}
-
+	
+	/**
+	 * A node whose younger brothers are being searched in parallel. Brothers raise the shared alpha
+	 * as they finish, and a cutoff aborts the brothers still searching (and every split below them).
+	 * A split point inside a brother that has to be searched again with a raised alpha is aborted too
+	 */
+	private static class SplitPoint
+	{
+		private final SplitPoint parent;
+		private final int parentAlpha; //Alpha of the parent when the brother holding this split point was started
+		private final int beta;
+		private volatile int alpha;
+		private volatile boolean cutoff = false;
+		
+		public SplitPoint(SplitPoint parent, int parentAlpha, int alpha, int beta)
+		{
+			this.parent = parent;
+			this.parentAlpha = parentAlpha;
+			this.alpha = alpha;
+			this.beta = beta;
+		}
+		
+		public int getAlpha()
+		{
+			return alpha;
+		}
+		
+		/**
+		 * Records the score of a finished brother
+		 * @param value The score (relative to the color to play at this node)
+		 */
+		public synchronized void update(int value)
+		{
+			if (value > alpha)
+			{
+				alpha = value;
+			}
+			if (value >= beta)
+			{
+				cutoff = true;
+			}
+		}
+		
+		//Returns if this split point or one above it has been cut off, or is in a brother that will be searched again
+		public boolean isAborted()
+		{
+			for (SplitPoint sp = this; sp != null; sp = sp.parent)
+			{
+				if (sp.cutoff || (sp.parent != null && sp.parent.alpha > sp.parentAlpha))
+				{
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+	
+	/**
+	 * Searches one younger brother at a split point on a borrowed searcher, replaying the moves
+	 * from the root to reach the split node on the searcher's board
+	 */
+	private class SplitTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		
+		private final SplitPoint sp;
+		private final int[] path;
+		private final int move;
+		private final int depth;
+		private final int maxDepth;
+		private final int color;
+		private final boolean nullMoveSearch;
+		
+		//Results
+		private int value;
+		private EvaluationLine line;
+		private boolean aborted = false;
+		private boolean timedOut = false;
+		private boolean failedLow = false; //Value is only an upper bound (<= the alpha it was searched with)
+		
+		public SplitTask(SplitPoint sp, int[] path, int move, int depth, int maxDepth, int color, boolean nullMoveSearch)
+		{
+			this.sp = sp;
+			this.path = path;
+			this.move = move;
+			this.depth = depth;
+			this.maxDepth = maxDepth;
+			this.color = color;
+			this.nullMoveSearch = nullMoveSearch;
+		}
+		
+		protected void compute()
+		{
+			if (sp.isAborted())
+			{
+				aborted = true;
+				return;
+			}
+			SmartPlayerNegamax searcher = master.borrowSearcher();
+			Board board = searcher.getBoard();
+			searcher.currentSplit = sp;
+			searcher.timeStart = master.timeStart;
+			searcher.ITERATIVE_DEEPENING = master.ITERATIVE_DEEPENING;
+			searcher.baseline_depth = master.baseline_depth;
+			
+			//Reach the split node, then search the brother
+			for (int k=0;k<path.length;k++)
+			{
+				if (path[k] == PackedMove.NONE) {
+					board.makeNullMove();
+				}
+				else {
+					board.executeMove(path[k]);
+				}
+				searcher.pathMoves[k] = path[k];
+			}
+			searcher.pathLength = path.length;
+			
+			//Search the brother, again whenever another brother raises alpha while it's being searched
+			int alpha;
+			long[] stats = startSplitStats();
+			try
+			{
+				do
+				{
+					alpha = sp.getAlpha();
+					searcher.splitAlpha = alpha;
+					searcher.windowRaised = false;
+					searcher.time_break = false;
+					line = new EvaluationLine(PackedMove.NONE);
+					searcher.pathMoves[searcher.pathLength++] = move;
+					board.executeMove(move);
+					try
+					{
+						value = -searcher.negamax(depth+1, maxDepth, -sp.beta, -alpha, -color, move, line, nullMoveSearch);
+					}
+					catch (IOException e)
+					{
+						throw new RuntimeException(e);
+					}
+					board.undoMove(move);
+					searcher.pathLength--;
+				}
+				while (searcher.windowRaised && !sp.isAborted());
+			}
+			finally
+			{
+				master.endSplitStats(stats);
+			}
+			
+			if (searcher.time_break)
+			{
+				aborted = sp.isAborted();
+				timedOut = !aborted;
+			}
+			else
+			{
+				failedLow = value <= alpha;
+				sp.update(value);
+			}
+			
+			//Back to the root for the next task
+			for (int k=path.length-1;k>=0;k--)
+			{
+				if (path[k] == PackedMove.NONE) {
+					board.undoNullMove();
+				}
+				else {
+					board.undoMove(path[k]);
+				}
+			}
+			searcher.pathLength = 0;
+			searcher.currentSplit = null;
+			master.idleSearchers.add(searcher);
+		}
+	}
 }
-
-
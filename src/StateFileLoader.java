@@ -0,0 +1,223 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Loads the text data file ("key nodeType depth score" per line, key in hex) into the learned state
+ * store. The file is memory-mapped and split into chunks on line boundaries, which are parsed
+ * concurrently on a fork/join pool. Parsing works on the mapped bytes directly, without making strings.
+ *
+ * Each chunk parses into its own arrays and then stores its states in one go while holding the store,
+ * since the store isn't safe to write from several threads.
+ */
+public final class StateFileLoader
+{
+	private static final int CHUNK_BYTES = 4 * 1024 * 1024;
+	private static final int MAX_LINE_BYTES = 4096; //Lines past this long are cut off
+
+	private StateFileLoader()
+	{
+	}
+
+	/**
+	 * Loads a data file into a store (keeping the deeper search of states that are already stored),
+	 * printing the number of records loaded and the speed
+	 *
+	 * @param fileName The data file
+	 * @param store The store
+	 * @param threads The number of pool threads
+	 * @return The number of states loaded
+	 * @throws IOException
+	 */
+	public static long load(String fileName, MappedStateStore store, int threads) throws IOException
+	{
+		long timeStart = System.nanoTime();
+		long loaded;
+		try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ))
+		{
+			long size = channel.size();
+			List<ChunkTask> tasks = new ArrayList<>();
+			for (long start = 0; start < size; start += CHUNK_BYTES)
+			{
+				tasks.add(new ChunkTask(channel, store, start, Math.min(size, start + CHUNK_BYTES), size));
+			}
+
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			try
+			{
+				loaded = pool.invoke(new RecursiveTask<Long>() {
+					protected Long compute()
+					{
+						long states = 0;
+						for (ChunkTask task : invokeAll(tasks))
+						{
+							states += task.join();
+						}
+						return states;
+					}
+				});
+			}
+			catch (RuntimeException e)
+			{
+				if (e.getCause() instanceof IOException)
+				{
+					throw (IOException) e.getCause();
+				}
+				throw e;
+			}
+			finally
+			{
+				pool.shutdown();
+			}
+		}
+		store.force();
+
+		double seconds = (System.nanoTime() - timeStart) / 1e9;
+		System.out.println("Loaded " + loaded + " states from " + fileName + " in " + seconds + "s ("
+				+ Math.round(loaded / Math.max(seconds, 1e-9)) + " records/second, " + threads + " threads)");
+		return loaded;
+	}
+
+	/**
+	 * Parses the lines starting in one chunk of the file (a line starting before the chunk belongs to the
+	 * chunk before it) and stores their states
+	 */
+	private static class ChunkTask extends RecursiveTask<Long>
+	{
+		private static final long serialVersionUID = 1L;
+
+		private FileChannel channel;
+		private MappedStateStore store;
+		private long start;
+		private long end;
+		private long fileSize;
+
+		public ChunkTask(FileChannel channel, MappedStateStore store, long start, long end, long fileSize)
+		{
+			this.channel = channel;
+			this.store = store;
+			this.start = start;
+			this.end = end;
+			this.fileSize = fileSize;
+		}
+
+		protected Long compute()
+		{
+			//Map one byte before the chunk (to find where its first line starts) and enough after it to
+			//finish its last line
+			long mapStart = Math.max(0, start - 1);
+			long mapEnd = Math.min(fileSize, end + MAX_LINE_BYTES);
+			MappedByteBuffer bytes;
+			try
+			{
+				bytes = channel.map(FileChannel.MapMode.READ_ONLY, mapStart, mapEnd - mapStart);
+			}
+			catch (IOException e)
+			{
+				throw new RuntimeException(e);
+			}
+			int limit = (int) (mapEnd - mapStart);
+			int chunkEnd = (int) (end - mapStart);
+
+			int pos = 0;
+			if (start > 0)
+			{
+				//Skip the rest of a line begun in the chunk before
+				while (pos < limit && bytes.get(pos) != '\n')
+				{
+					pos++;
+				}
+				pos++;
+			}
+
+			long[] keys = new long[CHUNK_BYTES / 16];
+			long[] entries = new long[keys.length];
+			int count = 0;
+			int[] field = new int[1];
+			while (pos < chunkEnd)
+			{
+				int lineEnd = pos;
+				while (lineEnd < limit && bytes.get(lineEnd) != '\n')
+				{
+					lineEnd++;
+				}
+
+				//Key (hex), skipping lines from the old string-keyed format
+				long key = 0;
+				int digits = 0;
+				int i = pos;
+				for (;i<lineEnd;i++)
+				{
+					int digit = Character.digit(bytes.get(i), 16);
+					if (digit < 0)
+					{
+						break;
+					}
+					key = (key << 4) | digit;
+					digits++;
+				}
+				if (digits > 0 && digits <= 16 && i < lineEnd && bytes.get(i) == ' ')
+				{
+					field[0] = i;
+					int nodeType = parseInt(bytes, field, lineEnd);
+					int depth = parseInt(bytes, field, lineEnd);
+					int score = parseInt(bytes, field, lineEnd);
+					if (count == keys.length)
+					{
+						keys = java.util.Arrays.copyOf(keys, count * 2);
+						entries = java.util.Arrays.copyOf(entries, count * 2);
+					}
+					keys[count] = key;
+					entries[count] = TranspositionTable.pack(nodeType, depth, score, PackedMove.NONE, 0);
+					count++;
+				}
+				pos = lineEnd + 1;
+			}
+
+			synchronized (store)
+			{
+				for (int i=0;i<count;i++)
+				{
+					store.store(keys[i], entries[i]);
+				}
+			}
+			return (long) count;
+		}
+
+		/**
+		 * Parses the next space-separated (signed) decimal field of a line
+		 *
+		 * @param bytes The mapped bytes
+		 * @param pos Holds the index to start at, moved past the field
+		 * @param lineEnd The index of the end of the line
+		 * @return The value of the field
+		 */
+		private static int parseInt(MappedByteBuffer bytes, int[] pos, int lineEnd)
+		{
+			int i = pos[0];
+			while (i < lineEnd && bytes.get(i) == ' ')
+			{
+				i++;
+			}
+			boolean negative = i < lineEnd && bytes.get(i) == '-';
+			if (negative)
+			{
+				i++;
+			}
+			int value = 0;
+			while (i < lineEnd && bytes.get(i) >= '0' && bytes.get(i) <= '9')
+			{
+				value = value * 10 + (bytes.get(i) - '0');
+				i++;
+			}
+			pos[0] = i;
+			return negative ? -value : value;
+		}
+	}
+}
@@ -0,0 +1,309 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of learned states, kept as numbered segment files in a directory. New states are
+ * only ever appended to the active segment; once it's full it is sealed and a new one is started.
+ *
+ * A background thread compacts sealed segments into the learned state store, which keeps the deepest
+ * search of each state, and then deletes them, so learning can run indefinitely on bounded disk space.
+ * Segments left over from an earlier run (e.g. after a crash) are compacted when the log is opened.
+ *
+ * Each record is 20 bytes: the Zobrist key, the packed data word (as in TranspositionTable) and a CRC32
+ * of both. A record that fails its CRC (a write cut short) ends the reading of its segment.
+ */
+public class StateLog
+{
+	public static final int RECORD_BYTES = 20;
+
+	private static final long SEGMENT_BYTES = 16L * 1024 * 1024;
+	private static final long COMPACTION_INTERVAL = 30000; //ms between compactions of sealed segments
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final String SEGMENT_SUFFIX = ".log";
+
+	private final Path directory;
+	private final MappedStateStore store;
+
+	private FileChannel active;
+	private int activeNumber;
+	private long activeSize;
+
+	private final Thread compactor;
+	private final Object compactionSignal = new Object();
+	private volatile boolean closed = false;
+	private long compactedRecords = 0;
+	private long corruptRecords = 0;
+
+	/**
+	 * Opens the log, compacting any segments already in its directory, and starts the compaction thread
+	 *
+	 * @param directory The directory of the segment files
+	 * @param store The store the segments are compacted into
+	 * @throws IOException
+	 */
+	public StateLog(String directory, MappedStateStore store) throws IOException
+	{
+		this.directory = Paths.get(directory);
+		this.store = store;
+		Files.createDirectories(this.directory);
+
+		List<Integer> existing = segmentNumbers(this.directory);
+		activeNumber = existing.isEmpty() ? 1 : existing.get(existing.size() - 1) + 1;
+		compact(existing);
+		openSegment(activeNumber);
+
+		compactor = new Thread(this::runCompactor, "StateLog compactor");
+		compactor.setDaemon(true);
+		compactor.start();
+	}
+
+	/**
+	 * Writes a record into a buffer
+	 *
+	 * @param buffer The buffer (must have RECORD_BYTES remaining)
+	 * @param key The Zobrist key of the state
+	 * @param entry The packed data word
+	 */
+	public static void putRecord(ByteBuffer buffer, long key, long entry)
+	{
+		buffer.putLong(key);
+		buffer.putLong(entry);
+		buffer.putInt(checksum(key, entry));
+	}
+
+	//Returns the CRC32 of a record's key and data word
+	private static int checksum(long key, long entry)
+	{
+		CRC32 crc = new CRC32();
+		ByteBuffer bytes = ByteBuffer.allocate(16);
+		bytes.putLong(key).putLong(entry);
+		crc.update(bytes.array());
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Appends records to the active segment (starting a new segment if it's full)
+	 *
+	 * @param records The buffer of whole records, from its position to its limit
+	 * @throws IOException
+	 */
+	public synchronized void append(ByteBuffer records) throws IOException
+	{
+		activeSize += records.remaining();
+		while (records.hasRemaining())
+		{
+			active.write(records);
+		}
+		if (activeSize >= SEGMENT_BYTES)
+		{
+			active.force(false);
+			active.close();
+			openSegment(activeNumber + 1);
+			synchronized (compactionSignal)
+			{
+				compactionSignal.notify();
+			}
+		}
+	}
+
+	/**
+	 * Forces appended records to disk
+	 * @throws IOException
+	 */
+	public synchronized void sync() throws IOException
+	{
+		active.force(false);
+	}
+
+	/**
+	 * Syncs the active segment and stops the compaction thread (sealed segments that haven't been
+	 * compacted yet are compacted the next time the log is opened)
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException
+	{
+		closed = true;
+		synchronized (compactionSignal)
+		{
+			compactionSignal.notify();
+		}
+		try
+		{
+			compactor.join();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		synchronized (this)
+		{
+			active.force(false);
+			active.close();
+		}
+	}
+
+	/**
+	 * Returns the number of records compacted into the store and the number dropped for failing their CRC
+	 */
+	public synchronized String getStatistics()
+	{
+		return compactedRecords + " states compacted, " + corruptRecords + " corrupt";
+	}
+
+	/**
+	 * Deletes every segment in a directory
+	 * @throws IOException
+	 */
+	public static void deleteSegments(String directory) throws IOException
+	{
+		Path path = Paths.get(directory);
+		if (!Files.isDirectory(path))
+		{
+			return;
+		}
+		for (int number : segmentNumbers(path))
+		{
+			Files.deleteIfExists(segmentPath(path, number));
+		}
+	}
+
+	private void openSegment(int number) throws IOException
+	{
+		activeNumber = number;
+		active = FileChannel.open(segmentPath(directory, number), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		activeSize = active.size();
+	}
+
+	private static Path segmentPath(Path directory, int number)
+	{
+		return directory.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+	}
+
+	/**
+	 * Returns the numbers of the segments in a directory, in order
+	 */
+	private static List<Integer> segmentNumbers(Path directory) throws IOException
+	{
+		List<Integer> numbers = new ArrayList<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX))
+		{
+			for (Path file : files)
+			{
+				String name = file.getFileName().toString();
+				try
+				{
+					numbers.add(Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+				}
+				catch (NumberFormatException e)
+				{
+					//Not a segment
+				}
+			}
+		}
+		Collections.sort(numbers);
+		return numbers;
+	}
+
+	/**
+	 * Compaction thread: merges sealed segments into the store whenever a segment is sealed, or every
+	 * COMPACTION_INTERVAL milliseconds
+	 */
+	private void runCompactor()
+	{
+		while (!closed)
+		{
+			synchronized (compactionSignal)
+			{
+				try
+				{
+					compactionSignal.wait(COMPACTION_INTERVAL);
+				}
+				catch (InterruptedException e)
+				{
+					return;
+				}
+			}
+			if (closed)
+			{
+				return;
+			}
+			try
+			{
+				List<Integer> sealed = new ArrayList<>();
+				int activeSegment;
+				synchronized (this)
+				{
+					activeSegment = activeNumber;
+				}
+				for (int number : segmentNumbers(directory))
+				{
+					if (number < activeSegment)
+					{
+						sealed.add(number);
+					}
+				}
+				compact(sealed);
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Merges segments into the store (keeping the deepest search of each state), then deletes them
+	 *
+	 * @param numbers The numbers of the segments, oldest first
+	 * @throws IOException
+	 */
+	private void compact(List<Integer> numbers) throws IOException
+	{
+		if (numbers.isEmpty())
+		{
+			return;
+		}
+		long compacted = 0;
+		long corrupt = 0;
+		for (int number : numbers)
+		{
+			Path path = segmentPath(directory, number);
+			ByteBuffer records = ByteBuffer.wrap(Files.readAllBytes(path));
+			while (records.remaining() >= RECORD_BYTES)
+			{
+				long key = records.getLong();
+				long entry = records.getLong();
+				if (records.getInt() != checksum(key, entry))
+				{
+					corrupt += 1 + records.remaining() / RECORD_BYTES;
+					break;
+				}
+				store.store(key, entry);
+				compacted++;
+			}
+		}
+		store.force();
+
+		//Only delete the segments once the store holding their states is on disk
+		for (int number : numbers)
+		{
+			Files.deleteIfExists(segmentPath(directory, number));
+		}
+		synchronized (this)
+		{
+			compactedRecords += compacted;
+			corruptRecords += corrupt;
+		}
+	}
+}
@@ -0,0 +1,190 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A thread that periodically snapshots the state table to a deflate-compressed file, so a crash loses
+ * at most one interval of learning. Each snapshot is written to a temporary file, synced and then
+ * atomically renamed over the last one, so the snapshot file is always complete.
+ *
+ * The table is walked while the search keeps using it. Each entry's two longs are read twice and the
+ * key decoded from them must belong in the entry's bucket, so an entry stored to while being read is
+ * skipped instead of saved with another entry's data; the snapshot is a mix of entries from slightly
+ * different moments, which is all the search needs.
+ *
+ * File format (deflated): magic number, then (key, data word) pairs, ended by a pair with MISS data.
+ */
+public class TableSnapshotter extends Thread
+{
+	private static final long MAGIC = 0x4348455353534E31L; //"CHESSSN1"
+
+	private final TranspositionTable table;
+	private final String fileName;
+	private final long interval;
+	private final Object closeSignal = new Object();
+	private volatile boolean closing = false;
+
+	/**
+	 * @param table The table to snapshot
+	 * @param fileName The snapshot file
+	 * @param interval The time (ms) between snapshots
+	 */
+	public TableSnapshotter(TranspositionTable table, String fileName, long interval)
+	{
+		super("TableSnapshotter");
+		setDaemon(true);
+		this.table = table;
+		this.fileName = fileName;
+		this.interval = interval;
+	}
+
+	/**
+	 * Writes a snapshot every interval until closed
+	 */
+	public void run()
+	{
+		while (!closing)
+		{
+			synchronized (closeSignal)
+			{
+				try
+				{
+					closeSignal.wait(interval);
+				}
+				catch (InterruptedException e)
+				{
+					return;
+				}
+			}
+			if (closing)
+			{
+				return;
+			}
+			try
+			{
+				write(table, fileName);
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Stops taking snapshots (waiting for one being written to finish)
+	 */
+	public void close()
+	{
+		closing = true;
+		synchronized (closeSignal)
+		{
+			closeSignal.notify(); //Not an interrupt, which would abort a snapshot being written
+		}
+		try
+		{
+			join();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Writes a snapshot of a table, printing its size and the time taken
+	 *
+	 * @param table The table
+	 * @param fileName The snapshot file (replaced only once the new snapshot is on disk)
+	 * @return The number of entries written
+	 * @throws IOException
+	 */
+	public static int write(TranspositionTable table, String fileName) throws IOException
+	{
+		long timeStart = System.nanoTime();
+		Path target = Paths.get(fileName);
+		Path temp = Paths.get(fileName + ".tmp");
+		int count = 0;
+
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try (FileOutputStream file = new FileOutputStream(temp.toFile()))
+		{
+			DeflaterOutputStream deflated = new DeflaterOutputStream(file, deflater, 1 << 16);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(deflated, 1 << 16));
+			out.writeLong(MAGIC);
+			for (int i=0;i<table.capacity();i++)
+			{
+				long entry = table.dataAt(i);
+				if (entry == TranspositionTable.MISS)
+				{
+					continue;
+				}
+				long key = table.keyAt(i, entry);
+				if (table.dataAt(i) != entry || table.keyAt(i, entry) != key || !table.belongsAt(i, key))
+				{
+					continue; //Stored to while being read, so the key and data may not be a pair
+				}
+				out.writeLong(key);
+				out.writeLong(entry);
+				count++;
+			}
+			out.writeLong(0L);
+			out.writeLong(TranspositionTable.MISS);
+			out.flush();
+			deflated.finish();
+			file.getChannel().force(true); //On disk before it replaces the last snapshot
+		}
+		finally
+		{
+			deflater.end();
+		}
+		Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		System.out.println("Table snapshot: " + count + " entries, " + Files.size(target) / 1024 + " KB in "
+				+ (System.nanoTime() - timeStart) / 1000000 + " ms");
+		return count;
+	}
+
+	/**
+	 * Reads a snapshot into a table
+	 *
+	 * @param table The table
+	 * @param fileName The snapshot file
+	 * @return The number of entries read
+	 * @throws IOException If the file isn't a complete snapshot
+	 */
+	public static int read(TranspositionTable table, String fileName) throws IOException
+	{
+		int count = 0;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new InflaterInputStream(new FileInputStream(fileName)), 1 << 16)))
+		{
+			if (in.readLong() != MAGIC)
+			{
+				throw new IOException(fileName + " is not a table snapshot");
+			}
+			while (true)
+			{
+				long key = in.readLong();
+				long entry = in.readLong();
+				if (entry == TranspositionTable.MISS)
+				{
+					break;
+				}
+				table.store(key, TranspositionTable.nodeType(entry), TranspositionTable.depth(entry), TranspositionTable.score(entry), TranspositionTable.move(entry));
+				count++;
+			}
+		}
+		return count;
+	}
+}
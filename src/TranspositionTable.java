@@ -0,0 +1,250 @@
+/**
+ * A fixed-size transposition table backed by primitive arrays, so its memory use is set once at
+ * creation and never grows. Entries are grouped in buckets of four; a store always succeeds by
+ * replacing the least valuable entry of the bucket (shallowest, and oldest by search generation).
+ *
+ * Each entry is two longs: the Zobrist key XOR the data word, and the packed data word
+ * Bits 0-15: score, 16-23: depth (signed, quiescence depths are negative), 24-25: node type,
+ * 26-31: generation, 32-51: best packed move.
+ * A data word of 0 (node type 0) never belongs to a stored entry, so it stands for "not found".
+ *
+ * The table is shared by search threads without locking. Since the key is stored XORed with its
+ * data, an entry whose two longs were written by different threads (or read halfway through a
+ * write) no longer matches its key, so a torn entry reads as a miss instead of wrong data.
+ */
+public class TranspositionTable
+{
+	public static final long MISS = 0L;
+
+	private static final int BUCKET_SIZE = 4;
+	private static final int ENTRY_BYTES = 16;
+
+	//Scores past these are mate scores (INF - plies), stored as distance from the 16 bit limit
+	private static final int INF = Integer.MAX_VALUE;
+	private static final int MATE_RANGE = 1000;
+	private static final int SCORE_LIMIT = 32767;
+	private static final int MAX_SCORE = SCORE_LIMIT - MATE_RANGE - 1;
+
+	private final long[] keys;
+	private final long[] data;
+	private final int bucketMask;
+	private volatile int generation = 0;
+
+	/**
+	 * Creates a table using (at most) the given amount of memory
+	 * @param megabytes The size of the table, rounded down to a power of two number of entries
+	 */
+	public TranspositionTable(int megabytes)
+	{
+		long entries = Math.max(BUCKET_SIZE, megabytes * 1024L * 1024L / ENTRY_BYTES);
+		int size = Integer.highestOneBit((int) Math.min(entries, 1 << 30));
+		keys = new long[size];
+		data = new long[size];
+		bucketMask = (size - 1) & ~(BUCKET_SIZE - 1);
+	}
+
+	/**
+	 * Starts a new search, so entries from earlier searches are replaced first
+	 */
+	public void newGeneration()
+	{
+		generation = (generation + 1) & 63;
+	}
+
+	/**
+	 * Looks up a state
+	 * @param key The Zobrist key of the state
+	 * @return The packed data word of the entry, or MISS
+	 */
+	public long probe(long key)
+	{
+		int bucket = (int) key & bucketMask;
+		for (int i=bucket;i<bucket+BUCKET_SIZE;i++)
+		{
+			long entry = data[i];
+			if ((keys[i] ^ entry) == key && entry != MISS)
+			{
+				return entry;
+			}
+		}
+		return MISS;
+	}
+
+	/**
+	 * Stores a state. An existing entry of the same state is only overwritten by a search at least as
+	 * deep (or by any search of a newer generation); otherwise the entry of the bucket with the lowest
+	 * depth, aged by generations since it was stored, is replaced
+	 *
+	 * @param key The Zobrist key of the state
+	 * @param nodeType The type of node (1 - Exact, 2 - Upper Bound, 3 - Lower Bound)
+	 * @param depth The depth of the search
+	 * @param score The score
+	 * @param move The best packed move (PackedMove.NONE if unknown)
+	 */
+	public void store(long key, int nodeType, int depth, int score, int move)
+	{
+		int bucket = (int) key & bucketMask;
+		int replace = bucket;
+		int replaceValue = Integer.MAX_VALUE;
+		for (int i=bucket;i<bucket+BUCKET_SIZE;i++)
+		{
+			long entry = data[i];
+			if (entry == MISS)
+			{
+				if (replaceValue > Integer.MIN_VALUE)
+				{
+					replace = i;
+					replaceValue = Integer.MIN_VALUE; //Empty slots are always taken first
+				}
+				continue;
+			}
+			if ((keys[i] ^ entry) == key)
+			{
+				if (depth(entry) > depth && generation(entry) == generation)
+				{
+					return;
+				}
+				replace = i;
+				break;
+			}
+			int value = depth(entry) - 4 * ((generation - generation(entry)) & 63);
+			if (value < replaceValue)
+			{
+				replace = i;
+				replaceValue = value;
+			}
+		}
+		long entry = pack(nodeType, depth, score, move, generation);
+		keys[replace] = key ^ entry;
+		data[replace] = entry;
+	}
+
+	/**
+	 * Packs the fields of an entry into a data word
+	 */
+	public static long pack(int nodeType, int depth, int score, int move, int generation)
+	{
+		return (encodeScore(score) & 0xFFFFL)
+				| (long) (depth & 0xFF) << 16
+				| (long) nodeType << 24
+				| (long) generation << 26
+				| (long) (move & 0xFFFFF) << 32;
+	}
+
+	//Maps a search score to 16 bits, keeping mate scores exact
+	private static int encodeScore(int score)
+	{
+		if (score >= INF - MATE_RANGE)
+		{
+			return SCORE_LIMIT - (INF - score);
+		}
+		if (score <= -INF + MATE_RANGE)
+		{
+			return -SCORE_LIMIT + (score + INF);
+		}
+		return Math.max(-MAX_SCORE, Math.min(MAX_SCORE, score));
+	}
+
+	// Returns the score of a data word
+	public static int score(long entry)
+	{
+		int s = (short) entry;
+		if (s > MAX_SCORE)
+		{
+			return INF - (SCORE_LIMIT - s);
+		}
+		if (s < -MAX_SCORE)
+		{
+			return -INF + (s + SCORE_LIMIT);
+		}
+		return s;
+	}
+
+	// Returns the depth of a data word
+	public static int depth(long entry)
+	{
+		return (byte) (entry >>> 16);
+	}
+
+	// Returns the node type of a data word (1 - Exact, 2 - Upper Bound, 3 - Lower Bound)
+	public static int nodeType(long entry)
+	{
+		return (int) (entry >>> 24) & 3;
+	}
+
+	// Returns the generation a data word was stored in
+	public static int generation(long entry)
+	{
+		return (int) (entry >>> 26) & 63;
+	}
+
+	// Returns the best packed move of a data word
+	public static int move(long entry)
+	{
+		return (int) (entry >>> 32) & 0xFFFFF;
+	}
+
+	/**
+	 * Returns the number of entries the table can hold
+	 */
+	public int capacity()
+	{
+		return keys.length;
+	}
+
+	/**
+	 * Returns the key of a used slot, decoded with the slot's data word as the caller read it (so both
+	 * come from the same moment unless a store changed the slot in between; see belongsAt)
+	 * @param index The slot
+	 * @param entry The data word read from the slot
+	 */
+	public long keyAt(int index, long entry)
+	{
+		return keys[index] ^ entry;
+	}
+
+	/**
+	 * Returns true if a key belongs in the bucket of a slot. A slot read halfway through a store decodes
+	 * to a key with no relation to its bucket, so this rejects almost every torn entry
+	 * @param index The slot
+	 * @param key The key decoded from the slot
+	 */
+	public boolean belongsAt(int index, long key)
+	{
+		return ((int) key & bucketMask) == (index & ~(BUCKET_SIZE - 1));
+	}
+
+	/**
+	 * Returns the data word of a slot (MISS if the slot is empty)
+	 */
+	public long dataAt(int index)
+	{
+		return data[index];
+	}
+
+	/**
+	 * Counts the used slots (walks the whole table)
+	 */
+	public int countEntries()
+	{
+		int count = 0;
+		for (long entry : data)
+		{
+			if (entry != MISS)
+			{
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Empties the table
+	 */
+	public void clear()
+	{
+		java.util.Arrays.fill(keys, 0L);
+		java.util.Arrays.fill(data, 0L);
+		generation = 0;
+	}
+}
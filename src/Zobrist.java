@@ -0,0 +1,42 @@
+import java.awt.Color;
+import java.util.Random;
+
+/**
+ * Random keys for Zobrist hashing of board states. A state's key is the XOR of the keys of every
+ * piece on its square, the side to move and the castling rights of both sides, so it can be updated
+ * incrementally as pieces are moved.
+ *
+ * Keys are generated from a fixed seed and squares are always numbered with white on the near side
+ * (like the old string compression), so keys saved to the data file stay valid between runs.
+ */
+public final class Zobrist
+{
+	public static final long[][][] PIECES = new long[2][7][64]; //[side][pieceEnum][square]
+	public static final long SIDE; //XORed in when black is to move
+	public static final long[] CASTLING = new long[16]; //[white rights | black rights << 2]
+
+	static
+	{
+		Random rng = new Random(4112023L);
+		boolean flip = Game.NEAR_COLOR.equals(Color.BLACK);
+		for (int side = 0; side < 2; side++)
+		{
+			for (int pieceEnum = 1; pieceEnum <= 6; pieceEnum++)
+			{
+				for (int sq = 0; sq < 64; sq++)
+				{
+					PIECES[side][pieceEnum][flip ? 63 - sq : sq] = rng.nextLong();
+				}
+			}
+		}
+		SIDE = rng.nextLong();
+		for (int i = 1; i < 16; i++)
+		{
+			CASTLING[i] = rng.nextLong();
+		}
+	}
+
+	private Zobrist()
+	{
+	}
+}